@@ -0,0 +1,261 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.cipher;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.sector67.otp.key.KeyReservation;
+import org.sector67.otp.key.KeyStore;
+
+/**
+ * An asynchronous facade over OneTimePadCipher and a KeyStore, so that callers do not block on
+ * key store I/O.  Each operation runs on the supplied executor and returns a Future, optionally
+ * also reporting to a CipherCallback.
+ * 
+ * At most maxInFlight operations are queued or running at once; submitting more blocks the caller
+ * until one finishes, which pushes back on producers instead of growing the queue or the number
+ * of threads.  Each message takes its key bytes and offset in one KeyStore.reserve call, and the
+ * XOR and MAC work runs after it, so reading the key for one message overlaps with encrypting
+ * others.  A callback that throws does not affect the Future.  Tasks that an executor drops
+ * without running, such as those returned by shutdownNow, give their permit back when their
+ * Future is cancelled.
+ * 
+ * @author scott.hasse@gmail.com
+ */
+public class AsyncOneTimePadCipher {
+
+
+	private OneTimePadCipher cipher;
+	private KeyStore store;
+	private ExecutorService executor;
+	private Semaphore permits;
+
+	public AsyncOneTimePadCipher(KeyStore store, ExecutorService executor, int maxInFlight) {
+		this(new OneTimePadCipher(store), store, executor, maxInFlight);
+	}
+
+	public AsyncOneTimePadCipher(OneTimePadCipher cipher, KeyStore store, ExecutorService executor,
+			int maxInFlight) {
+		if (maxInFlight <= 0) {
+			throw new IllegalArgumentException("The number of operations in flight must be positive");
+		}
+		this.cipher = cipher;
+		this.store = store;
+		this.executor = executor;
+		this.permits = new Semaphore(maxInFlight);
+	}
+
+	/*
+	 * The number of operations that can be submitted before callers start to block
+	 */
+	public int getAvailablePermits() {
+		return permits.availablePermits();
+	}
+
+	public Future<EncryptionResult> encrypt(String keyname, String input) throws CipherException {
+		return encrypt(keyname, input, null);
+	}
+
+	/*
+	 * Encrypts a String as UTF-8 bytes with the next bytes of the named key
+	 */
+	public Future<EncryptionResult> encrypt(final String keyname, String input,
+			CipherCallback<EncryptionResult> callback) throws CipherException {
+		final byte[] plaintext = toBytes(keyname, input);
+		return submit(new Callable<EncryptionResult>() {
+			@Override
+			public EncryptionResult call() throws Exception {
+				KeyReservation key = store.reserve(keyname, plaintext.length);
+				try {
+					return new EncryptionResult(keyname, key.getOffset(), cipher.encrypt(plaintext, key.getKeyBuffer()));
+				} finally {
+					key.release();
+				}
+			}
+		}, callback);
+	}
+
+	public Future<EncryptionResult> encryptAuthenticated(String keyname, String input) throws CipherException {
+		return encryptAuthenticated(keyname, input, null);
+	}
+
+	/*
+	 * As OneTimePadCipher.encryptAuthenticated(String, String)
+	 */
+	public Future<EncryptionResult> encryptAuthenticated(final String keyname, String input,
+			CipherCallback<EncryptionResult> callback) throws CipherException {
+		final byte[] plaintext = toBytes(keyname, input);
+		return submit(new Callable<EncryptionResult>() {
+			@Override
+			public EncryptionResult call() throws Exception {
+				KeyReservation key = store.reserve(keyname, plaintext.length + OneTimeMac.KEY_LENGTH);
+				try {
+					return new EncryptionResult(keyname, key.getOffset(), cipher.encryptAuthenticated(plaintext, key.getKeyBuffer()));
+				} finally {
+					key.release();
+				}
+			}
+		}, callback);
+	}
+
+	public Future<String> decrypt(String keyname, int offset, byte[] input) throws CipherException {
+		return decrypt(keyname, offset, input, null);
+	}
+
+	public Future<String> decrypt(final String keyname, final int offset, final byte[] input,
+			CipherCallback<String> callback) throws CipherException {
+		return submit(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				return cipher.decrypt(keyname, offset, input);
+			}
+		}, callback);
+	}
+
+	public Future<String> decryptAuthenticated(String keyname, int offset, byte[] input) throws CipherException {
+		return decryptAuthenticated(keyname, offset, input, null);
+	}
+
+	public Future<String> decryptAuthenticated(final String keyname, final int offset, final byte[] input,
+			CipherCallback<String> callback) throws CipherException {
+		return submit(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				return cipher.decryptAuthenticated(keyname, offset, input);
+			}
+		}, callback);
+	}
+
+	public Future<Void> erase(String keyname, int offset, int length) throws CipherException {
+		return erase(keyname, offset, length, null);
+	}
+
+	/*
+	 * Erases key bytes
+	 */
+	public Future<Void> erase(final String keyname, final int offset, final int length,
+			CipherCallback<Void> callback) throws CipherException {
+		return submit(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				store.eraseKeyBytes(keyname, offset, length);
+				return null;
+			}
+		}, callback);
+	}
+
+	private byte[] toBytes(String keyname, String input) throws CipherException {
+		if (input == null) {
+			throw new CipherException("Cannot encrypt null plain text");
+		}
+		if (keyname == null) {
+			throw new CipherException("Cannot encrypt with a null key name");
+		}
+		return input.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/*
+	 * Waits for a permit, then runs the task on the executor.  The permit comes back once, either
+	 * when the task finishes however it ends or when its Future is cancelled before it runs
+	 */
+	private <T> Future<T> submit(final Callable<T> task, final CipherCallback<T> callback)
+			throws CipherException {
+		try {
+			permits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CipherException(e);
+		}
+		final AtomicBoolean released = new AtomicBoolean(false);
+		FutureTask<T> future = new FutureTask<T>(new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				T result;
+				try {
+					try {
+						result = task.call();
+					} finally {
+						releasePermit(released);
+					}
+				} catch (Exception e) {
+					notifyFailed(callback, e);
+					throw e;
+				}
+				// the key is already spent, so a failing callback must not lose the result
+				notifyCompleted(callback, result);
+				return result;
+			}
+		}) {
+			@Override
+			protected void done() {
+				// covers tasks cancelled before they ran, such as those returned by shutdownNow
+				releasePermit(released);
+			}
+		};
+		try {
+			executor.execute(future);
+		} catch (RejectedExecutionException e) {
+			releasePermit(released);
+			throw e;
+		}
+		return future;
+	}
+
+	private void releasePermit(AtomicBoolean released) {
+		if (released.compareAndSet(false, true)) {
+			permits.release();
+		}
+	}
+
+	private <T> void notifyCompleted(CipherCallback<T> callback, T result) {
+		if (callback != null) {
+			try {
+				callback.completed(result);
+			} catch (RuntimeException e) {
+				reportCallbackError(e);
+			}
+		}
+	}
+
+	private <T> void notifyFailed(CipherCallback<T> callback, Exception failure) {
+		if (callback != null) {
+			try {
+				callback.failed(failure);
+			} catch (RuntimeException e) {
+				reportCallbackError(e);
+			}
+		}
+	}
+
+	/*
+	 * Hands a callback's exception to the thread's uncaught exception handler, as nothing else is
+	 * waiting for it
+	 */
+	private void reportCallbackError(RuntimeException e) {
+		Thread thread = Thread.currentThread();
+		thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+	}
+}
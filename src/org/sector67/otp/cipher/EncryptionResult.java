@@ -0,0 +1,50 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.cipher;
+
+/**
+ * The cipher text of an asynchronously encrypted message, along with the key name and offset
+ * needed to decrypt it.
+ * 
+ * @author scott.hasse@gmail.com
+ */
+public class EncryptionResult {
+
+	private String keyName;
+	private int offset;
+	private byte[] ciphertext;
+
+	public EncryptionResult(String keyName, int offset, byte[] ciphertext) {
+		this.keyName = keyName;
+		this.offset = offset;
+		this.ciphertext = ciphertext;
+	}
+
+	public String getKeyName() {
+		return keyName;
+	}
+
+	public int getOffset() {
+		return offset;
+	}
+
+	public byte[] getCiphertext() {
+		return ciphertext;
+	}
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.cipher;
+
+/**
+ * A Wegman-Carter one-time message authentication code, keyed with 32 bytes of pad material.
+ * The message is hashed with the GHASH universal hash of AES-GCM, a polynomial evaluated over
+ * GF(2^128) at the point H taken from the first 16 key bytes, and the result is masked with the
+ * remaining 16 key bytes.  As long as the key is never reused, a forgery succeeds with
+ * probability at most (message length in 16 byte blocks + 1) / 2^128, regardless of the
+ * attacker's computing power, which matches the security model of the one-time pad itself.
+ * 
+ * The hash is computed incrementally with update(), so it can be fed each block of ciphertext
+ * as it is produced.  Multiplication uses the 4-bit table method, 16 precomputed multiples of H.
+ * 
+ * @author scott.hasse@gmail.com
+ */
+public class OneTimeMac {
+
+	public static final int KEY_LENGTH = 32;
+	public static final int TAG_LENGTH = 16;
+
+	// reduction constants for the 4 bits shifted out of the low end on each step
+	private static final long[] REDUCE = {
+		0x0000L << 48, 0x1C20L << 48, 0x3840L << 48, 0x2460L << 48,
+		0x7080L << 48, 0x6CA0L << 48, 0x48C0L << 48, 0x54E0L << 48,
+		0xE100L << 48, 0xFD20L << 48, 0xD940L << 48, 0xC560L << 48,
+		0x9180L << 48, 0x8DA0L << 48, 0xA9C0L << 48, 0xB5E0L << 48 };
+
+	private long[] tableHigh = new long[16];
+	private long[] tableLow = new long[16];
+	private long maskHigh;
+	private long maskLow;
+	private long stateHigh = 0;
+	private long stateLow = 0;
+	private byte[] partial = new byte[16];
+	private int partialLength = 0;
+	private long messageLength = 0;
+
+	/*
+	 * Creates a MAC keyed with KEY_LENGTH bytes of the key starting at offset.  The key bytes
+	 * must never be used for anything else.
+	 */
+	public OneTimeMac(byte[] key, int offset) throws CipherException {
+		if (key == null || offset < 0 || key.length - offset < KEY_LENGTH) {
+			throw new CipherException("A one-time MAC requires " + KEY_LENGTH + " bytes of key");
+		}
+		long hHigh = getLong(key, offset);
+		long hLow = getLong(key, offset + 8);
+		maskHigh = getLong(key, offset + 16);
+		maskLow = getLong(key, offset + 24);
+
+		// table[8] = H, table[4] = H * x, table[2] = H * x^2, table[1] = H * x^3
+		for (int i = 8; i > 0; i >>= 1) {
+			tableHigh[i] = hHigh;
+			tableLow[i] = hLow;
+			long carry = hLow & 1;
+			hLow = (hLow >>> 1) | (hHigh << 63);
+			hHigh = (hHigh >>> 1) ^ (carry == 0 ? 0 : 0xE100000000000000L);
+		}
+		for (int i = 2; i < 16; i <<= 1) {
+			for (int j = 1; j < i; j++) {
+				tableHigh[i + j] = tableHigh[i] ^ tableHigh[j];
+				tableLow[i + j] = tableLow[i] ^ tableLow[j];
+			}
+		}
+	}
+
+	public void update(byte[] data, int offset, int length) {
+		messageLength += length;
+		if (partialLength > 0) {
+			int count = Math.min(length, 16 - partialLength);
+			System.arraycopy(data, offset, partial, partialLength, count);
+			partialLength += count;
+			offset += count;
+			length -= count;
+			if (partialLength < 16) {
+				return;
+			}
+			processBlock(getLong(partial, 0), getLong(partial, 8));
+			partialLength = 0;
+		}
+		while (length >= 16) {
+			processBlock(getLong(data, offset), getLong(data, offset + 8));
+			offset += 16;
+			length -= 16;
+		}
+		if (length > 0) {
+			System.arraycopy(data, offset, partial, 0, length);
+			partialLength = length;
+		}
+	}
+
+	/*
+	 * Completes the hash with a final block holding the message length, and returns the masked
+	 * tag.  The MAC cannot be used after this.
+	 */
+	public byte[] doFinal() {
+		if (partialLength > 0) {
+			for (int i = partialLength; i < 16; i++) {
+				partial[i] = 0;
+			}
+			processBlock(getLong(partial, 0), getLong(partial, 8));
+			partialLength = 0;
+		}
+		processBlock(0, messageLength * 8);
+		byte[] tag = new byte[TAG_LENGTH];
+		putLong(tag, 0, stateHigh ^ maskHigh);
+		putLong(tag, 8, stateLow ^ maskLow);
+		return tag;
+	}
+
+	/*
+	 * state = (state ^ block) * H
+	 */
+	private void processBlock(long blockHigh, long blockLow) {
+		long xHigh = stateHigh ^ blockHigh;
+		long xLow = stateLow ^ blockLow;
+		long zHigh = 0;
+		long zLow = 0;
+		// walk the 32 nibbles from the last byte to the first, low nibble before high nibble
+		for (int i = 0; i < 32; i++) {
+			int shift = ((i & 15) >> 1) * 8 + (i & 1) * 4;
+			long word = (i < 16) ? xLow : xHigh;
+			int nibble = (int) (word >>> shift) & 0x0F;
+			if (i > 0) {
+				int rem = (int) zLow & 0x0F;
+				zLow = (zLow >>> 4) | (zHigh << 60);
+				zHigh = (zHigh >>> 4) ^ REDUCE[rem];
+			}
+			zHigh ^= tableHigh[nibble];
+			zLow ^= tableLow[nibble];
+		}
+		stateHigh = zHigh;
+		stateLow = zLow;
+	}
+
+	private static long getLong(byte[] b, int offset) {
+		long result = 0;
+		for (int i = 0; i < 8; i++) {
+			result = (result << 8) | (b[offset + i] & 0xFF);
+		}
+		return result;
+	}
+
+	private static void putLong(byte[] b, int offset, long value) {
+		for (int i = 7; i >= 0; i--) {
+			b[offset + i] = (byte) value;
+			value >>>= 8;
+		}
+	}
+}
@@ -18,10 +18,16 @@
 
 package org.sector67.otp.cipher;
 
-import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
 
+import org.sector67.otp.key.KeyBuffer;
 import org.sector67.otp.key.KeyException;
 import org.sector67.otp.key.KeyStore;
+import org.sector67.otp.metrics.Metrics;
+import org.sector67.otp.metrics.NoOpMetrics;
 
 /**
  * A one-time pad cipher implementation.
@@ -44,12 +50,19 @@ import org.sector67.otp.key.KeyStore;
  */
 
 public class OneTimePadCipher {
-	private String CHARSET = "UTF-8";
 	private KeyStore store;
+	private Metrics metrics = NoOpMetrics.INSTANCE;
 
 	public OneTimePadCipher(KeyStore store) {
 		this.store = store;
 	}
+
+	/*
+	 * Sets where the bytes encrypted and decrypted with named keys are reported
+	 */
+	public void setMetrics(Metrics metrics) {
+		this.metrics = (metrics == null) ? NoOpMetrics.INSTANCE : metrics;
+	}
 	/*
 	 * Encrypts a String as UTF-8 bytes given the filename of a key.
 	 */
@@ -61,16 +74,16 @@ public class OneTimePadCipher {
 			throw new CipherException("Cannot encrypt with a null key name");
 		}
 		//convert String to UTF-8 bytes
-		byte[] inputBytes = null;
+		byte[] inputBytes = input.getBytes(StandardCharsets.UTF_8);
+		//get the appropriate key, the pooled buffer is wiped when released
+		KeyBuffer key = store.getKeyBufferForEncryption(keyname, inputBytes.length);
 		try {
-			inputBytes = input.getBytes(CHARSET);
-		} catch (UnsupportedEncodingException e) {
-			throw new CipherException(e);
+			byte[] encrypted = xor(inputBytes, key.array(), inputBytes.length);
+			metrics.bytesEncrypted(keyname, inputBytes.length);
+			return encrypted;
+		} finally {
+			key.release();
 		}
-		//get the appropriate key
-		byte[] key = store.getKeyBytesForEncryption(keyname, inputBytes.length);
-		byte[] encrypted = encrypt(inputBytes, key);
-		return encrypted;
 	}
 
 	/*
@@ -79,18 +92,84 @@ public class OneTimePadCipher {
 	public String decrypt(String keyname, int offset, byte[] input) throws KeyException, CipherException {
 		//decrypt
 		//get the appropriate key data
-		byte[] key = store.getKeyBytesForDecryption(keyname, offset, input.length);
-		byte[] decrypted = decrypt(input, key);
-		//interpret the result as UTF-8 bytes 
-		String result = null;
+		byte[] decrypted;
+		KeyBuffer key = store.getKeyBufferForDecryption(keyname, offset, input.length);
 		try {
-			result = new String(decrypted, CHARSET);
-		} catch (UnsupportedEncodingException e) {
-			throw new CipherException(e);
+			decrypted = xor(input, key.array(), input.length);
+		} finally {
+			key.release();
 		}
-		return result;
+		metrics.bytesDecrypted(keyname, decrypted.length);
+		//interpret the result as UTF-8 bytes 
+		return new String(decrypted, StandardCharsets.UTF_8);
 	}
 	
+	/*
+	 * Returns the number of bytes the UTF-8 encoding of the input takes, which is both the key
+	 * consumed and the cipher text written by encrypt(String, CharSequence, ByteBuffer)
+	 */
+	public static int getEncodedLength(CharSequence input) {
+		return Utf8Codec.encodedLength(input);
+	}
+
+	/*
+	 * Encrypts the UTF-8 encoding of the input into out given the name of a key.  The text is
+	 * encoded a chunk at a time straight into out, so no byte array the size of the message is
+	 * built.  out must have getEncodedLength(input) bytes remaining.  Returns the number of bytes
+	 * written.
+	 */
+	public int encrypt(String keyname, CharSequence input, ByteBuffer out) throws KeyException, CipherException {
+		if (input == null) {
+			throw new CipherException("Cannot encrypt null plain text");
+		}
+		if (keyname == null) {
+			throw new CipherException("Cannot encrypt with a null key name");
+		}
+		if (out == null) {
+			throw new CipherException("Cannot encrypt into a null buffer");
+		}
+		int length = getEncodedLength(input);
+		//check before reserving so a short buffer does not burn key material
+		if (out.remaining() < length) {
+			throw new CipherException("Cannot encrypt, the output buffer has [" + out.remaining() + "] bytes remaining but the encrypted text needs [" + length + "]");
+		}
+		KeyBuffer key = store.getKeyBufferForEncryption(keyname, length);
+		try {
+			int written = Utf8Codec.current().encode(input, key.array(), 0, out);
+			if (written != length) {
+				throw new CipherException("Encoded [" + written + "] bytes but reserved [" + length + "] bytes of key");
+			}
+			metrics.bytesEncrypted(keyname, length);
+			return written;
+		} finally {
+			key.release();
+		}
+	}
+
+	/*
+	 * Decrypts the remaining bytes of the input and appends the text to out, given the name of a
+	 * key.  The plain text is decoded a chunk at a time, so the caller can reuse one StringBuilder
+	 * across messages.  Returns the number of characters appended.
+	 */
+	public int decrypt(String keyname, int offset, ByteBuffer input, StringBuilder out) throws KeyException, CipherException {
+		if (input == null) {
+			throw new CipherException("Cannot decrypt null cipher text");
+		}
+		if (out == null) {
+			throw new CipherException("Cannot decrypt into a null buffer");
+		}
+		int length = input.remaining();
+		KeyBuffer key = store.getKeyBufferForDecryption(keyname, offset, length);
+		int appended;
+		try {
+			appended = Utf8Codec.current().decode(input, key.array(), 0, out);
+		} finally {
+			key.release();
+		}
+		metrics.bytesDecrypted(keyname, length);
+		return appended;
+	}
+
 	/* Encrypts the String input as UTF-8 binary data */
 	public byte[] encryptString(String input, byte[] key) throws CipherException {
 		if (input == null) {
@@ -99,12 +178,7 @@ public class OneTimePadCipher {
 		if (key == null) {
 			throw new CipherException("Cannot encrypt with a null key");
 		}
-		byte[] b = null;
-		try {
-			b = input.getBytes(CHARSET);
-		} catch (UnsupportedEncodingException e) {
-			throw new CipherException(e);
-		}
+		byte[] b = input.getBytes(StandardCharsets.UTF_8);
 		byte[] encrypted = encrypt(b, key);
 		
 		return encrypted;
@@ -120,16 +194,178 @@ public class OneTimePadCipher {
 		if (key == null) {
 			throw new CipherException("Cannot decrypt with a null key");
 		}
-		String s = null;
 		byte[] b = decrypt(input, key);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+	
+	/*
+	 * Encrypts a String as UTF-8 bytes and authenticates it with a OneTimeMac, given the name of
+	 * a key.  Consumes OneTimeMac.KEY_LENGTH more key bytes than the plain text length, and
+	 * returns the cipher text followed by the OneTimeMac.TAG_LENGTH byte tag.
+	 */
+	public byte[] encryptAuthenticated(String keyname, String input) throws KeyException, CipherException {
+		if (input == null) {
+			throw new CipherException("Cannot encrypt null plain text");
+		}
+		if (keyname == null) {
+			throw new CipherException("Cannot encrypt with a null key name");
+		}
+		byte[] inputBytes = input.getBytes(StandardCharsets.UTF_8);
+		KeyBuffer key = store.getKeyBufferForEncryption(keyname, inputBytes.length + OneTimeMac.KEY_LENGTH);
 		try {
-			s = new String(b, CHARSET);
-		} catch (UnsupportedEncodingException e) {
-			throw new CipherException(e);
+			byte[] encrypted = encryptAuthenticated(inputBytes, key.array(), key.getLength());
+			metrics.bytesEncrypted(keyname, inputBytes.length);
+			return encrypted;
+		} finally {
+			key.release();
 		}
-		return s;
 	}
-	
+
+	/*
+	 * Verifies and decrypts the output of encryptAuthenticated(String, String) into a Java String,
+	 * given the name of a key and the offset the message was encrypted at.  The key range is only
+	 * marked as used once the tag has verified, so a forged message cannot use it up.
+	 */
+	public String decryptAuthenticated(String keyname, int offset, byte[] input) throws KeyException, CipherException {
+		if (input == null || input.length < OneTimeMac.TAG_LENGTH) {
+			throw new CipherException("Cannot decrypt cipher text without an authentication tag");
+		}
+		int keyLength = input.length - OneTimeMac.TAG_LENGTH + OneTimeMac.KEY_LENGTH;
+		KeyBuffer key = store.readKeyBufferForDecryption(keyname, offset, keyLength);
+		byte[] decrypted;
+		try {
+			decrypted = decryptAuthenticated(input, key.array(), key.getLength());
+		} catch (CipherException e) {
+			metrics.authenticationFailed(keyname);
+			throw e;
+		} finally {
+			key.release();
+		}
+		try {
+			store.markDecrypted(keyname, offset, keyLength);
+		} catch (KeyException e) {
+			// another copy of the message was decrypted first
+			Arrays.fill(decrypted, (byte) 0);
+			throw e;
+		}
+		metrics.bytesDecrypted(keyname, decrypted.length);
+		return new String(decrypted, StandardCharsets.UTF_8);
+	}
+
+	/*
+	 * Encrypts the plain text with the first plaintext.length bytes of the key, and authenticates
+	 * the cipher text with a OneTimeMac keyed with the remaining OneTimeMac.KEY_LENGTH bytes.  The
+	 * cipher text is hashed block by block as it is produced, so the data is only walked once.
+	 */
+	public byte[] encryptAuthenticated(byte[] plaintext, byte[] key) throws CipherException {
+		if (key == null) {
+			throw new CipherException("Cannot encrypt with a null key");
+		}
+		return encryptAuthenticated(plaintext, key, key.length);
+	}
+
+	/*
+	 * As encryptAuthenticated(byte[], byte[]) with the key in key[0, keyLength), for pooled
+	 * buffers that may be longer than the key
+	 */
+	private byte[] encryptAuthenticated(byte[] plaintext, byte[] key, int keyLength) throws CipherException {
+		if (plaintext == null) {
+			throw new CipherException("Cannot encrypt null plain text");
+		}
+		if (plaintext.length + OneTimeMac.KEY_LENGTH != keyLength) {
+			throw new CipherException("Cannot encrypt, input byte length [" + plaintext.length + "] plus the MAC key length [" + OneTimeMac.KEY_LENGTH + "] is not the same as the key length [" + keyLength + "]");
+		}
+		OneTimeMac mac = new OneTimeMac(key, plaintext.length);
+		byte[] result = new byte[plaintext.length + OneTimeMac.TAG_LENGTH];
+		for (int block = 0; block < plaintext.length; block += OneTimeMac.TAG_LENGTH) {
+			int end = Math.min(plaintext.length, block + OneTimeMac.TAG_LENGTH);
+			for (int i = block; i < end; i++) {
+				result[i] = (byte) (plaintext[i] ^ key[i]);
+			}
+			mac.update(result, block, end - block);
+		}
+		System.arraycopy(mac.doFinal(), 0, result, plaintext.length, OneTimeMac.TAG_LENGTH);
+		return result;
+	}
+
+	/*
+	 * Verifies the tag at the end of the input and decrypts the cipher text before it.  Nothing
+	 * is returned if the tag does not match.
+	 */
+	public byte[] decryptAuthenticated(byte[] input, byte[] key) throws CipherException {
+		if (key == null) {
+			throw new CipherException("Cannot decrypt with a null key");
+		}
+		return decryptAuthenticated(input, key, key.length);
+	}
+
+	/*
+	 * As decryptAuthenticated(byte[], byte[]) with the key in key[0, keyLength)
+	 */
+	private byte[] decryptAuthenticated(byte[] input, byte[] key, int keyLength) throws CipherException {
+		if (input == null || input.length < OneTimeMac.TAG_LENGTH) {
+			throw new CipherException("Cannot decrypt cipher text without an authentication tag");
+		}
+		int length = input.length - OneTimeMac.TAG_LENGTH;
+		if (length + OneTimeMac.KEY_LENGTH != keyLength) {
+			throw new CipherException("Cannot decrypt, input byte length [" + length + "] plus the MAC key length [" + OneTimeMac.KEY_LENGTH + "] is not the same as the key length [" + keyLength + "]");
+		}
+		OneTimeMac mac = new OneTimeMac(key, length);
+		byte[] result = new byte[length];
+		for (int block = 0; block < length; block += OneTimeMac.TAG_LENGTH) {
+			int end = Math.min(length, block + OneTimeMac.TAG_LENGTH);
+			mac.update(input, block, end - block);
+			for (int i = block; i < end; i++) {
+				result[i] = (byte) (input[i] ^ key[i]);
+			}
+		}
+		byte[] tag = Arrays.copyOfRange(input, length, input.length);
+		if (!MessageDigest.isEqual(tag, mac.doFinal())) {
+			Arrays.fill(result, (byte) 0);
+			throw new CipherException("The message authentication code does not match, the message has been altered or the wrong key was used");
+		}
+		return result;
+	}
+
+	/*
+	 * Encrypts with the key bytes in a pooled buffer, such as a KeyReservation's, which must be
+	 * exactly as long as the plain text.  The buffer is not released.
+	 */
+	public byte[] encrypt(byte[] plaintext, KeyBuffer key) throws CipherException {
+		checkLength(plaintext, key, "encrypt");
+		return xor(plaintext, key.array(), key.getLength());
+	}
+
+	/*
+	 * As encrypt(byte[], KeyBuffer)
+	 */
+	public byte[] decrypt(byte[] ciphertext, KeyBuffer key) throws CipherException {
+		checkLength(ciphertext, key, "decrypt");
+		return xor(ciphertext, key.array(), key.getLength());
+	}
+
+	/*
+	 * As encryptAuthenticated(byte[], byte[]) with the key bytes in a pooled buffer
+	 */
+	public byte[] encryptAuthenticated(byte[] plaintext, KeyBuffer key) throws CipherException {
+		if (key == null) {
+			throw new CipherException("Cannot encrypt with a null key");
+		}
+		return encryptAuthenticated(plaintext, key.array(), key.getLength());
+	}
+
+	private void checkLength(byte[] input, KeyBuffer key, String operation) throws CipherException {
+		if (input == null) {
+			throw new CipherException("Cannot " + operation + " null input");
+		}
+		if (key == null) {
+			throw new CipherException("Cannot " + operation + " with a null key");
+		}
+		if (input.length != key.getLength()) {
+			throw new CipherException("Cannot " + operation + ", input byte length [" + input.length + "] is not the same as the key length [" + key.getLength() + "]");
+		}
+	}
+
 	public byte[] encrypt(byte[] plaintext, byte[] key) throws CipherException {
 		if (plaintext == null) {
 			throw new CipherException("Cannot encrypt null plain text");
@@ -163,4 +399,15 @@ public class OneTimePadCipher {
 		}
 		return result;
 	}
+
+	/*
+	 * XORs the input with key[0, length), the key array may be longer
+	 */
+	private byte[] xor(byte[] input, byte[] key, int length) {
+		byte[] result = new byte[length];
+		for (int i = 0; i < length; i++) {
+			result[i] = (byte) (input[i] ^ key[i]);
+		}
+		return result;
+	}
 }
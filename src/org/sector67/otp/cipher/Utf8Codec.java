@@ -0,0 +1,173 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.cipher;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Per-thread UTF-8 encoder and decoder with fixed size scratch chunks, so text can be moved
+ * between characters and cipher text a chunk at a time instead of through whole-message byte
+ * arrays.  Malformed input is replaced the same way String.getBytes and new String do.  The
+ * scratch chunks are wiped after every call since they hold plain text.
+ * 
+ * @author scott.hasse@gmail.com
+ */
+class Utf8Codec {
+
+	static final int CHUNK_SIZE = 4096;
+
+	private static final ThreadLocal<Utf8Codec> CODEC = new ThreadLocal<Utf8Codec>() {
+		@Override
+		protected Utf8Codec initialValue() {
+			return new Utf8Codec();
+		}
+	};
+
+	private CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private ByteBuffer bytes = ByteBuffer.allocate(CHUNK_SIZE);
+	private CharBuffer chars = CharBuffer.allocate(CHUNK_SIZE);
+
+	private Utf8Codec() {
+	}
+
+	/*
+	 * Returns the calling thread's codec, which must not be handed to other threads
+	 */
+	static Utf8Codec current() {
+		return CODEC.get();
+	}
+
+	/*
+	 * Counts the bytes in the UTF-8 encoding of the input without encoding it.  An unpaired
+	 * surrogate counts as the single byte of its replacement.
+	 */
+	static int encodedLength(CharSequence input) {
+		int length = 0;
+		int count = input.length();
+		for (int i = 0; i < count; i++) {
+			char c = input.charAt(i);
+			if (c < 0x80) {
+				length += 1;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < count && Character.isLowSurrogate(input.charAt(i + 1))) {
+				length += 4;
+				i++;
+			} else if (Character.isSurrogate(c)) {
+				length += 1;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	/*
+	 * UTF-8 encodes the input a chunk at a time, writing each chunk XORed with key[keyOffset...]
+	 * to out.  Returns the number of bytes written.
+	 */
+	int encode(CharSequence input, byte[] key, int keyOffset, ByteBuffer out) throws CipherException {
+		CharBuffer in = CharBuffer.wrap(input);
+		byte[] chunk = bytes.array();
+		int k = keyOffset;
+		encoder.reset();
+		try {
+			boolean flushing = false;
+			while (true) {
+				bytes.clear();
+				CoderResult result = flushing ? encoder.flush(bytes) : encoder.encode(in, bytes, true);
+				if (result.isError()) {
+					result.throwException();
+				}
+				int n = bytes.position();
+				for (int i = 0; i < n; i++) {
+					out.put((byte) (chunk[i] ^ key[k++]));
+				}
+				if (result.isUnderflow()) {
+					if (flushing) {
+						break;
+					}
+					flushing = true;
+				}
+			}
+		} catch (CharacterCodingException e) {
+			throw new CipherException(e);
+		} finally {
+			Arrays.fill(chunk, (byte) 0);
+		}
+		return k - keyOffset;
+	}
+
+	/*
+	 * XORs the remaining input with key[keyOffset...] a chunk at a time and appends the UTF-8
+	 * decoding of the result to out.  Returns the number of characters appended.
+	 */
+	int decode(ByteBuffer input, byte[] key, int keyOffset, StringBuilder out) throws CipherException {
+		byte[] chunk = bytes.array();
+		char[] decoded = chars.array();
+		int k = keyOffset;
+		int appended = 0;
+		decoder.reset();
+		bytes.clear();
+		try {
+			boolean flushing = false;
+			while (true) {
+				while (bytes.hasRemaining() && input.hasRemaining()) {
+					bytes.put((byte) (input.get() ^ key[k++]));
+				}
+				bytes.flip();
+				chars.clear();
+				boolean end = !input.hasRemaining();
+				CoderResult result = flushing ? decoder.flush(chars) : decoder.decode(bytes, chars, end);
+				if (result.isError()) {
+					result.throwException();
+				}
+				out.append(decoded, 0, chars.position());
+				appended += chars.position();
+				//keep any partial character for the next chunk
+				bytes.compact();
+				if (end && result.isUnderflow()) {
+					if (flushing) {
+						break;
+					}
+					flushing = true;
+				}
+			}
+		} catch (CharacterCodingException e) {
+			throw new CipherException(e);
+		} finally {
+			Arrays.fill(chunk, (byte) 0);
+			Arrays.fill(decoded, (char) 0);
+		}
+		return appended;
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.encoding;
+
+import java.util.Arrays;
+
+/**
+ * A base class for text encoders that lay their output out in major chunks (lines) and minor
+ * chunks (groups within a line), with chunk sizes given in input bytes.  Subclasses convert fixed
+ * size groups of bytes to fixed size groups of characters, e.g. 3 bytes to 4 characters for
+ * base64, and chunk sizes must be a multiple of that group size so that every line except the
+ * last holds only whole groups.
+ * 
+ * Encoding appends straight to a single StringBuilder sized up front, and decoding writes straight
+ * into the result array, so there are no intermediate strings per chunk.
+ * 
+ * @author scott.hasse@gmail.com
+ *
+ */
+public abstract class ChunkedTextEncoder implements TextEncoder {
+
+	protected int majorChunkSize = 20; //the size in bytes of major chunks
+	protected int minorChunkSize = 1; //the size in bytes of minor chunks
+	protected String minorChunkSeparator = "  ";
+	protected String majorChunkSeparator = "\n";
+
+	/*
+	 * The number of bytes in each encoded group
+	 */
+	protected abstract int getGroupBytes();
+
+	/*
+	 * The number of characters each full group of bytes is encoded to
+	 */
+	protected abstract int getGroupChars();
+
+	/*
+	 * Appends the encoding of length bytes, at most getGroupBytes(), to the output.  Only the
+	 * final group of the input can be short.
+	 */
+	protected abstract void encodeGroup(byte[] input, int offset, int length, StringBuilder output);
+
+	/*
+	 * Decodes length characters, at most getGroupChars(), into the output and returns the number
+	 * of bytes written.  Only the final group of the input can be short.
+	 */
+	protected abstract int decodeGroup(CharSequence input, int offset, int length, byte[] output, int outputOffset);
+
+	/* 
+	 * Sets how many bytes in each major chunk
+	 */
+	public void setMajorChunkSize(int majorChunkSize) {
+		checkChunkSize(majorChunkSize);
+		this.majorChunkSize = majorChunkSize;
+	}
+
+	public int getMajorChunkSize() {
+		return majorChunkSize;
+	}
+
+	public void setMinorChunkSize(int minorChunkSize) {
+		checkChunkSize(minorChunkSize);
+		this.minorChunkSize = minorChunkSize;
+	}
+
+	public void setMinorChunkSeparator(String minorChunkSeparator) {
+		this.minorChunkSeparator = minorChunkSeparator;
+	}
+
+	public void setMajorChunkSeparator(String majorChunkSeparator) {
+		this.majorChunkSeparator = majorChunkSeparator;
+	}
+
+	private void checkChunkSize(int chunkSize) {
+		if (chunkSize < 1 || chunkSize % getGroupBytes() != 0) {
+			throw new IllegalArgumentException("The chunk size must be a positive multiple of " + getGroupBytes() + " bytes");
+		}
+	}
+
+	@Override
+	public String encode(byte[] input) throws EncodingException {
+		return getChunked(input);
+	}
+
+	/*
+	 * Encodes the data, separating minor chunks with the minor chunk separator and terminating
+	 * every major chunk, including the last, with the major chunk separator.
+	 */
+	protected String getChunked(byte[] input) {
+		int ilength = input.length;
+		int groups = (ilength + getGroupBytes() - 1) / getGroupBytes();
+		int lines = (ilength + majorChunkSize - 1) / majorChunkSize;
+		int minorChunks = (ilength + minorChunkSize - 1) / minorChunkSize;
+		StringBuilder result = new StringBuilder(groups * getGroupChars() + lines * majorChunkSeparator.length()
+				+ minorChunks * minorChunkSeparator.length());
+		for (int i = 0; i < ilength; i += majorChunkSize) {
+			int lineEnd = Math.min(ilength, i + majorChunkSize);
+			for (int j = i; j < lineEnd; j += minorChunkSize) {
+				int chunkEnd = Math.min(lineEnd, j + minorChunkSize);
+				for (int k = j; k < chunkEnd; k += getGroupBytes()) {
+					encodeGroup(input, k, Math.min(chunkEnd, k + getGroupBytes()) - k, result);
+				}
+				if (chunkEnd < lineEnd) {
+					result.append(minorChunkSeparator);
+				}
+			}
+			result.append(majorChunkSeparator);
+		}
+		return result.toString();
+	}
+
+	@Override
+	public byte[] decode(String input) throws EncodingException {
+		input = cleanInput(input);
+		int ilength = input.length();
+		int groups = (ilength + getGroupChars() - 1) / getGroupChars();
+		byte[] result = new byte[groups * getGroupBytes()];
+		int written = 0;
+		for (int i = 0; i < ilength; i += getGroupChars()) {
+			written += decodeGroup(input, i, Math.min(ilength, i + getGroupChars()) - i, result, written);
+		}
+		if (written < result.length) {
+			return Arrays.copyOf(result, written);
+		}
+		return result;
+	}
+
+	/*
+	 * Removes every character used in the chunk separators from the input
+	 */
+	protected String cleanInput(String input) {
+		String separators = minorChunkSeparator + majorChunkSeparator;
+		StringBuilder result = null;
+		int ilength = input.length();
+		for (int i = 0; i < ilength; i++) {
+			char c = input.charAt(i);
+			if (separators.indexOf(c) >= 0) {
+				if (result == null) {
+					result = new StringBuilder(ilength);
+					result.append(input, 0, i);
+				}
+			} else if (result != null) {
+				result.append(c);
+			}
+		}
+		return (result == null) ? input : result.toString();
+	}
+}
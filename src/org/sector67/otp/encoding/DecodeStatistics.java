@@ -0,0 +1,99 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.encoding;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per-message counters filled in while decoding error corrected text, recording how many
+ * Reed Solomon blocks were clean, how many needed correction and how many could not be
+ * corrected.  Blocks may be decoded in parallel, so the counters are safe to update from
+ * several threads.
+ * 
+ * @author scott.hasse@gmail.com
+ *
+ */
+public class DecodeStatistics {
+
+	private AtomicInteger cleanBlocks = new AtomicInteger();
+	private AtomicInteger correctedBlocks = new AtomicInteger();
+	private AtomicInteger uncorrectableBlocks = new AtomicInteger();
+	private AtomicInteger erasedBytes = new AtomicInteger();
+
+	void blockClean() {
+		cleanBlocks.incrementAndGet();
+	}
+
+	void blockCorrected() {
+		correctedBlocks.incrementAndGet();
+	}
+
+	void blockUncorrectable() {
+		uncorrectableBlocks.incrementAndGet();
+	}
+
+	void bytesErased(int count) {
+		erasedBytes.addAndGet(count);
+	}
+
+	/*
+	 * The number of blocks that passed the syndrome check and were returned without correction
+	 */
+	public int getCleanBlocks() {
+		return cleanBlocks.get();
+	}
+
+	/*
+	 * The number of blocks that contained errors which were successfully corrected
+	 */
+	public int getCorrectedBlocks() {
+		return correctedBlocks.get();
+	}
+
+	/*
+	 * The number of blocks that contained more errors than the error correction bytes could fix
+	 */
+	public int getUncorrectableBlocks() {
+		return uncorrectableBlocks.get();
+	}
+
+	/*
+	 * The number of bytes that were marked as unreadable in the input
+	 */
+	public int getErasedBytes() {
+		return erasedBytes.get();
+	}
+
+	public int getTotalBlocks() {
+		return getCleanBlocks() + getCorrectedBlocks() + getUncorrectableBlocks();
+	}
+
+	public void reset() {
+		cleanBlocks.set(0);
+		correctedBlocks.set(0);
+		uncorrectableBlocks.set(0);
+		erasedBytes.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "DecodeStatistics [clean=" + getCleanBlocks() + ", corrected=" + getCorrectedBlocks()
+				+ ", uncorrectable=" + getUncorrectableBlocks() + ", erased=" + getErasedBytes() + "]";
+	}
+}
@@ -18,119 +18,134 @@
 
 package org.sector67.otp.encoding;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.util.Arrays;
-
-import com.google.zxing.common.reedsolomon.GenericGF;
-import com.google.zxing.common.reedsolomon.ReedSolomonDecoder;
-import com.google.zxing.common.reedsolomon.ReedSolomonEncoder;
-import com.google.zxing.common.reedsolomon.ReedSolomonException;
+import java.util.concurrent.ExecutorService;
 
 /**
  * A class to encode binary data into base 16 chunks, adding Reed Solomon error correcting bytes
  * to the end of each major chunk.
  * 
+ * The error correction itself is done by a ReedSolomonBlockCoder, using the major chunk size as
+ * the block size.  Each major chunk is an independent Reed Solomon block, so when an executor is
+ * configured large inputs are encoded and decoded in parallel batches of blocks.
+ * 
+ * By default each block occupies exactly one line, so a smudged line can easily exceed the
+ * errorCorrectionBytes / 2 errors a single block can correct.  With an interleave depth of D,
+ * each group of D blocks is written column by column: byte 0 of every block, then byte 1 of
+ * every block and so on.  A run of damaged bytes is then spread across D blocks, and bursts of
+ * up to D * (errorCorrectionBytes / 2) bytes are corrected.  For 20 byte lines:
+ * 
+ *   errorCorrectionBytes  depth  overhead  correctable burst
+ *   4                     1      20%       2 bytes
+ *   4                     10     20%       20 bytes (a whole line)
+ *   2                     20     10%       20 bytes (a whole line)
+ *   2                     40     10%       40 bytes (two whole lines)
+ * 
+ * Both sides must be configured with the same major chunk size, error correction bytes and
+ * interleave depth.
+ * 
+ * When decoding, any hex character that could not be read can be replaced with the erasure
+ * marker ('?' by default).  The byte containing it is then treated as an erasure, an error at a
+ * known position, which only uses up one error correction byte instead of two.  A block can
+ * therefore recover from e unknown errors plus f erasures as long as 2e + f <= errorCorrectionBytes.
+ * 
  * @author scott.hasse@gmail.com
  *
  */
 public class ErrorCorrectingBase16Encoder extends SimpleBase16Encoder {
 
-	private int errorCorrectionBytes = 4;
-	private GenericGF gf = GenericGF.QR_CODE_FIELD_256;
-	private int maxBytes = 256;
+	private ReedSolomonBlockCoder coder = new ReedSolomonBlockCoder();
+	private char erasureMarker = '?';
 	
+	/*
+	 * Sets how many error correction bytes are added to each major chunk.  A block can correct
+	 * up to half this many damaged bytes.
+	 */
+	public void setErrorCorrectionBytes(int errorCorrectionBytes) {
+		coder.setErrorCorrectionBytes(errorCorrectionBytes);
+	}
+
+	/*
+	 * Sets how many blocks are interleaved together, 1 (the default) disables interleaving.
+	 */
+	public void setInterleaveDepth(int interleaveDepth) {
+		coder.setInterleaveDepth(interleaveDepth);
+	}
+
+	/*
+	 * Sets the character used in encoded text to mark an unreadable hex digit.
+	 */
+	public void setErasureMarker(char erasureMarker) {
+		if (Character.digit(erasureMarker, 16) >= 0) {
+			throw new IllegalArgumentException("The erasure marker cannot be a hex digit");
+		}
+		this.erasureMarker = erasureMarker;
+	}
+
+	/*
+	 * The longest run of consecutive damaged bytes that is guaranteed to be correctable with the
+	 * current settings, assuming no other errors in the affected blocks.
+	 */
+	public int getCorrectableBurstLength() {
+		return coder.getCorrectableBurstLength();
+	}
+
+	/*
+	 * The fraction of the encoded bytes used by error correction for full major chunks.
+	 */
+	public double getOverhead() {
+		return coder.getOverhead(majorChunkSize);
+	}
+
+	/*
+	 * Sets the executor used to process blocks in parallel, or null (the default) to process
+	 * all blocks on the calling thread.  The executor is not shut down by this class.
+	 */
+	public void setExecutor(ExecutorService executor) {
+		coder.setExecutor(executor);
+	}
+
+	/*
+	 * Sets how many blocks are handed to the executor as a single task.  Inputs with no more
+	 * than this many blocks are always processed on the calling thread.
+	 */
+	public void setBlocksPerTask(int blocksPerTask) {
+		coder.setBlocksPerTask(blocksPerTask);
+	}
+
 	@Override
 	public String encode(byte[] input) throws EncodingException {
 		// chunk up the input into maxChunkSize - errorCorrectionBytes sized chunks of data, and add error correction to each chunk
-	    int ilength = input.length;
-	    ByteArrayOutputStream result = new ByteArrayOutputStream();
-	    int eccChunkSize = majorChunkSize - errorCorrectionBytes; 
-
-	    for (int i = 0; i < ilength; i += eccChunkSize) {
-	    	byte[] noEccChunk = Arrays.copyOfRange(input, i, Math.min(ilength, i + eccChunkSize));
-			//System.out.println("noEccChunk [" + super.encode(noEccChunk) + "]");
-
-	    	byte[] errorCorrected = addECC(noEccChunk);
-	        try {
-				result.write(errorCorrected);
-				//System.out.println("chunk range: " + i + " to " + Math.min(ilength, i + eccChunkSize));
-				//System.out.println("chunking to [" + super.encode(errorCorrected) + "]");
-			} catch (IOException e) {
-				// in-memory byte stream should not have this problem
-				throw new RuntimeException(e);
-			}
-	    }
+		byte[] errorCorrected = coder.encode(input, majorChunkSize);
 		// then base16 encode and chunk the whole thing
-		return super.encode(result.toByteArray());
+		return super.encode(errorCorrected);
 	}
 
 	@Override
 	public byte[] decode(String input) throws EncodingException {
-		// chunk up the input into maxChunkSize sized chunks of data, and add error correction to each chunk
-		input  = cleanInput(input);
-	    int ilength = input.length();
-	    StringBuffer result = new StringBuffer();
-	    
-	    //there are two hex characters for each byte
-	    int base16StringMajorChunkSize = majorChunkSize * 2;
-
-	    for (int i = 0; i < ilength; i += base16StringMajorChunkSize) {
-	    	String chunk = input.substring(i, Math.min(ilength, i + base16StringMajorChunkSize));
-			//System.out.println("dechunking to [" + chunk + "]");
+		return decode(input, null);
+	}
 
-	    	byte[] byteChunk = super.decode(chunk);
-			try {
-				byte[] corrected = removeECC(byteChunk);
-				//append the string data stripped of the ECC characters
-				result.append(super.encode(corrected));
-			} catch (ReedSolomonException e) {
-				throw new EncodingException(e);
+	/*
+	 * Decodes the input, recording how many blocks were clean, corrected or uncorrectable in the
+	 * provided statistics.  When statistics are provided every block is checked before an
+	 * uncorrectable block is reported, so the counters describe the whole message.
+	 */
+	public byte[] decode(String input, DecodeStatistics stats) throws EncodingException {
+		input = cleanInput(input);
+		byte[] erased = null;
+		if (input.indexOf(erasureMarker) >= 0) {
+			// flag the byte holding each marked digit, and give the digit a placeholder value
+			char[] chars = input.toCharArray();
+			erased = new byte[(chars.length + 1) / 2];
+			for (int i = 0; i < chars.length; i++) {
+				if (chars[i] == erasureMarker) {
+					chars[i] = '0';
+					erased[i / 2] = 1;
+				}
 			}
-	    }
-		return super.decode(result.toString());
-	}
-	
-	
-	private byte[] addECC(byte[] input) {
-		if (input == null) {
-			throw new IllegalArgumentException("The input to error correction code cannot be null");
-		}
-		if (input.length > (maxBytes - errorCorrectionBytes)) {
-			throw new IllegalArgumentException("The input to error correction code plus error correction bytes cannot be longer than 256");
-		}
-		//convert byte[] to int[] into an array large enough to hold the ECC
-		int[] ints = new int[input.length + errorCorrectionBytes];
-		for (int i = 0; i < input.length; i++) {
-			ints[i] = input[i] & 0xFF;
-		}
-		ReedSolomonEncoder e = new ReedSolomonEncoder(gf);
-		e.encode(ints, errorCorrectionBytes);
-		//convert int[] to byte[]
-		byte[] output = new byte[ints.length];
-		for (int i = 0; i < ints.length; i++) {
-			output[i] = (byte) ints[i];			
-		}
-		return output;
-	}
-	
-	private  byte[] removeECC(byte[] input) throws ReedSolomonException {
-		if (input == null) {
-			throw new IllegalArgumentException("The input to error correction code cannot be null");
-		}
-		if (input.length > maxBytes) {
-			throw new IllegalArgumentException("The input to error correction code plus error correction bytes cannot be longer than 256");
-		}
-		int[] ints = new int[input.length];
-		for (int i = 0; i < ints.length; i++) {
-			ints[i] = input[i] & 0xFF;
-		}
-		ReedSolomonDecoder d = new ReedSolomonDecoder(gf);
-		d.decode(ints, errorCorrectionBytes);
-		byte[] result = new byte[input.length - errorCorrectionBytes];
-		for (int i = 0; i < result.length; i++) {
-			result[i] = (byte) ints[i];
+			input = new String(chars);
 		}
-		return result;
+		// chunk up the input into maxChunkSize sized chunks of data, and remove the error correction from each chunk
+		return coder.decode(super.decode(input), erased, majorChunkSize, stats);
 	}
 }
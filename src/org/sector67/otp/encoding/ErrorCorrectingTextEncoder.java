@@ -0,0 +1,84 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.encoding;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Adds Reed Solomon error correction to any ChunkedTextEncoder, for example a SimpleBase64Encoder
+ * or SimpleZ85Encoder.  As with the ErrorCorrectingBase16Encoder, each major chunk of the wrapped
+ * encoder is one error correcting block, so the error correction bytes appear at the end of
+ * each line unless interleaving is enabled.
+ * 
+ * Erasure markers are specific to the base 16 format and are only supported by the
+ * ErrorCorrectingBase16Encoder.
+ * 
+ * @author scott.hasse@gmail.com
+ *
+ */
+public class ErrorCorrectingTextEncoder implements TextEncoder {
+
+	private ChunkedTextEncoder encoder;
+	private ReedSolomonBlockCoder coder = new ReedSolomonBlockCoder();
+
+	public ErrorCorrectingTextEncoder(ChunkedTextEncoder encoder) {
+		if (encoder == null) {
+			throw new IllegalArgumentException("The wrapped encoder cannot be null");
+		}
+		this.encoder = encoder;
+	}
+
+	public void setErrorCorrectionBytes(int errorCorrectionBytes) {
+		coder.setErrorCorrectionBytes(errorCorrectionBytes);
+	}
+
+	public void setInterleaveDepth(int interleaveDepth) {
+		coder.setInterleaveDepth(interleaveDepth);
+	}
+
+	public void setExecutor(ExecutorService executor) {
+		coder.setExecutor(executor);
+	}
+
+	public void setBlocksPerTask(int blocksPerTask) {
+		coder.setBlocksPerTask(blocksPerTask);
+	}
+
+	public int getCorrectableBurstLength() {
+		return coder.getCorrectableBurstLength();
+	}
+
+	public double getOverhead() {
+		return coder.getOverhead(encoder.getMajorChunkSize());
+	}
+
+	@Override
+	public String encode(byte[] input) throws EncodingException {
+		return encoder.encode(coder.encode(input, encoder.getMajorChunkSize()));
+	}
+
+	@Override
+	public byte[] decode(String input) throws EncodingException {
+		return decode(input, null);
+	}
+
+	public byte[] decode(String input, DecodeStatistics stats) throws EncodingException {
+		return coder.decode(encoder.decode(input), null, encoder.getMajorChunkSize(), stats);
+	}
+}
@@ -0,0 +1,392 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.encoding;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.sector67.otp.metrics.Tracing;
+import org.sector67.otp.utils.ErrorCorrectingUtils;
+import org.sector67.otp.utils.ReedSolomonErasureDecoder;
+
+import com.google.zxing.common.reedsolomon.GenericGF;
+import com.google.zxing.common.reedsolomon.ReedSolomonDecoder;
+import com.google.zxing.common.reedsolomon.ReedSolomonEncoder;
+import com.google.zxing.common.reedsolomon.ReedSolomonException;
+
+/**
+ * Adds and removes Reed Solomon error correction on binary data split into fixed size blocks,
+ * independent of how the result is turned into text.  Each block of blockSize bytes holds
+ * blockSize - errorCorrectionBytes data bytes followed by the error correction bytes, only the
+ * final block can be shorter.
+ * 
+ * Blocks are independent, so when an executor is configured large inputs are processed in
+ * parallel batches of blocks.  Every block writes to its own fixed position in the result, so the
+ * output is identical to the sequential case.
+ * 
+ * With an interleave depth of D, each group of D blocks is written column by column: byte 0 of
+ * every block, then byte 1 of every block and so on.  A run of damaged bytes is then spread
+ * across D blocks, and bursts of up to D * (errorCorrectionBytes / 2) bytes are corrected.
+ * 
+ * Bytes known to be unreadable can be flagged as erasures when decoding.  An erasure only uses up
+ * one error correction byte instead of two, so a block can recover from e unknown errors plus f
+ * erasures as long as 2e + f <= errorCorrectionBytes.
+ * 
+ * @author scott.hasse@gmail.com
+ *
+ */
+public class ReedSolomonBlockCoder {
+
+	private int errorCorrectionBytes = 4;
+	private GenericGF gf = GenericGF.QR_CODE_FIELD_256;
+	private int maxBytes = 256;
+	private ExecutorService executor = null;
+	private int blocksPerTask = 256;
+	private int interleaveDepth = 1;
+	private ReedSolomonErasureDecoder erasureDecoder = new ReedSolomonErasureDecoder();
+	
+	/*
+	 * Sets how many error correction bytes are added to each block.  A block can correct
+	 * up to half this many damaged bytes.
+	 */
+	public void setErrorCorrectionBytes(int errorCorrectionBytes) {
+		if (errorCorrectionBytes < 1) {
+			throw new IllegalArgumentException("The number of error correction bytes must be at least 1");
+		}
+		this.errorCorrectionBytes = errorCorrectionBytes;
+	}
+
+	public int getErrorCorrectionBytes() {
+		return errorCorrectionBytes;
+	}
+
+	/*
+	 * Sets how many blocks are interleaved together, 1 (the default) disables interleaving.
+	 */
+	public void setInterleaveDepth(int interleaveDepth) {
+		if (interleaveDepth < 1) {
+			throw new IllegalArgumentException("The interleave depth must be at least 1");
+		}
+		this.interleaveDepth = interleaveDepth;
+	}
+
+	/*
+	 * The longest run of consecutive damaged bytes that is guaranteed to be correctable with the
+	 * current settings, assuming no other errors in the affected blocks.
+	 */
+	public int getCorrectableBurstLength() {
+		return interleaveDepth * (errorCorrectionBytes / 2);
+	}
+
+	/*
+	 * The fraction of the encoded bytes used by error correction for full blocks.
+	 */
+	public double getOverhead(int blockSize) {
+		return (double) errorCorrectionBytes / blockSize;
+	}
+
+	/*
+	 * Sets the executor used to process blocks in parallel, or null (the default) to process
+	 * all blocks on the calling thread.  The executor is not shut down by this class.
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/*
+	 * Sets how many blocks are handed to the executor as a single task.  Inputs with no more
+	 * than this many blocks are always processed on the calling thread.
+	 */
+	public void setBlocksPerTask(int blocksPerTask) {
+		if (blocksPerTask < 1) {
+			throw new IllegalArgumentException("The number of blocks per task must be at least 1");
+		}
+		this.blocksPerTask = blocksPerTask;
+	}
+
+	/*
+	 * Splits the input into blockSize - errorCorrectionBytes sized chunks and adds error correction
+	 * to each one, interleaving the resulting blocks if configured.
+	 */
+	public byte[] encode(byte[] input, final int blockSize) throws EncodingException {
+		final byte[] data = input;
+		final int ilength = data.length;
+		final int eccChunkSize = blockSize - errorCorrectionBytes;
+		if (eccChunkSize < 1) {
+			throw new EncodingException("The block size must be larger than the number of error correction bytes");
+		}
+		int blocks = (ilength + eccChunkSize - 1) / eccChunkSize;
+		final byte[] result = new byte[ilength + blocks * errorCorrectionBytes];
+
+		processBlocks(blocks, new BlockProcessor<ReedSolomonEncoder>() {
+			@Override
+			public ReedSolomonEncoder newState() {
+				return new ReedSolomonEncoder(gf);
+			}
+
+			@Override
+			public void process(ReedSolomonEncoder e, int block) {
+				int i = block * eccChunkSize;
+				int length = Math.min(ilength, i + eccChunkSize) - i;
+				addECC(e, data, i, length, result, block * blockSize);
+			}
+		});
+		if (interleaveDepth > 1) {
+			byte[] interleaved = new byte[result.length];
+			interleave(result, interleaved, blockSize, false);
+			return interleaved;
+		}
+		return result;
+	}
+
+	/*
+	 * Removes the error correction from data produced by encode(), correcting any damaged blocks.
+	 * If erased is not null, it holds a non-zero flag for every byte of the input known to be bad.
+	 * When statistics are provided every block is checked before an uncorrectable block is
+	 * reported, so the counters describe the whole message.
+	 */
+	public byte[] decode(byte[] input, byte[] erased, final int blockSize, final DecodeStatistics stats) throws EncodingException {
+		if (erased != null && erased.length < input.length) {
+			throw new IllegalArgumentException("There must be an erasure flag for every input byte");
+		}
+		if (interleaveDepth > 1) {
+			byte[] deinterleaved = new byte[input.length];
+			interleave(input, deinterleaved, blockSize, true);
+			input = deinterleaved;
+			if (erased != null) {
+				byte[] deinterleavedErasures = new byte[input.length];
+				interleave(erased, deinterleavedErasures, blockSize, true);
+				erased = deinterleavedErasures;
+			}
+		}
+		final byte[] data = input;
+		final byte[] erasures = erased;
+		final int ilength = data.length;
+		int blocks = (ilength + blockSize - 1) / blockSize;
+		if (blocks > 0 && ilength - (blocks - 1) * blockSize <= errorCorrectionBytes) {
+			throw new EncodingException("The last block is too short to contain error correction bytes");
+		}
+		final int eccChunkSize = blockSize - errorCorrectionBytes;
+		final byte[] result = new byte[ilength - blocks * errorCorrectionBytes];
+		int uncorrectableBefore = (stats == null) ? 0 : stats.getUncorrectableBlocks();
+
+		processBlocks(blocks, new BlockProcessor<ReedSolomonDecoder>() {
+			@Override
+			public ReedSolomonDecoder newState() {
+				return new ReedSolomonDecoder(gf);
+			}
+
+			@Override
+			public void process(ReedSolomonDecoder d, int block) throws EncodingException {
+				int i = block * blockSize;
+				int length = Math.min(ilength, i + blockSize) - i;
+				int[] blockErasures = (erasures == null) ? null : getErasures(erasures, i, length);
+				long trace = Tracing.start();
+				try {
+					//copy the data stripped of the ECC bytes
+					boolean clean = removeECC(d, data, i, length, blockErasures, result, block * eccChunkSize);
+					if (stats != null) {
+						if (blockErasures != null) {
+							stats.bytesErased(blockErasures.length);
+						}
+						if (clean) {
+							stats.blockClean();
+						} else {
+							stats.blockCorrected();
+						}
+					}
+				} catch (ReedSolomonException e) {
+					if (stats == null) {
+						throw new EncodingException(e);
+					}
+					stats.blockUncorrectable();
+				} finally {
+					Tracing.end(trace, Tracing.BLOCK_DECODE, null, i, length);
+				}
+			}
+		});
+		if (stats != null && stats.getUncorrectableBlocks() > uncorrectableBefore) {
+			int uncorrectable = stats.getUncorrectableBlocks() - uncorrectableBefore;
+			throw new EncodingException("The input contained " + uncorrectable + " block(s) with too many errors to correct");
+		}
+		return result;
+	}
+	
+	/*
+	 * Returns the block relative positions of the flagged bytes in a block, or null if there are none.
+	 */
+	private int[] getErasures(byte[] erased, int offset, int length) {
+		int count = 0;
+		for (int i = offset; i < offset + length; i++) {
+			if (erased[i] != 0) {
+				count++;
+			}
+		}
+		if (count == 0) {
+			return null;
+		}
+		int[] result = new int[count];
+		int j = 0;
+		for (int i = 0; i < length; i++) {
+			if (erased[offset + i] != 0) {
+				result[j++] = i;
+			}
+		}
+		return result;
+	}
+
+	/*
+	 * Converts between the block by block layout and the interleaved layout.  Within each group
+	 * of interleaveDepth blocks, byte n of every block is emitted before byte n + 1 of any block.
+	 * Only the final block can be short, and it simply drops out of the rotation once exhausted.
+	 * When reverse is true, the interleaved input is written back to the block by block layout.
+	 */
+	private void interleave(byte[] input, byte[] output, int blockSize, boolean reverse) {
+		int length = input.length;
+		int groupSize = interleaveDepth * blockSize;
+		int k = 0;
+		for (int groupStart = 0; groupStart < length; groupStart += groupSize) {
+			int blocks = Math.min(interleaveDepth, (length - groupStart + blockSize - 1) / blockSize);
+			for (int pos = 0; pos < blockSize; pos++) {
+				for (int j = 0; j < blocks; j++) {
+					int index = groupStart + j * blockSize + pos;
+					if (index < length) {
+						if (reverse) {
+							output[index] = input[k++];
+						} else {
+							output[k++] = input[index];
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/*
+	 * Runs the processor over every block, either on the calling thread or in batches on the
+	 * configured executor.  Each batch gets its own processor state, as the zxing encoder and
+	 * decoder are not thread safe.
+	 */
+	private <S> void processBlocks(int blocks, final BlockProcessor<S> processor) throws EncodingException {
+		if (executor == null || blocks <= blocksPerTask) {
+			S state = processor.newState();
+			for (int block = 0; block < blocks; block++) {
+				processor.process(state, block);
+			}
+			return;
+		}
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int first = 0; first < blocks; first += blocksPerTask) {
+			final int start = first;
+			final int end = Math.min(blocks, first + blocksPerTask);
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws EncodingException {
+					S state = processor.newState();
+					for (int block = start; block < end; block++) {
+						processor.process(state, block);
+					}
+					return null;
+				}
+			});
+		}
+		try {
+			List<Future<Void>> futures = executor.invokeAll(tasks);
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new EncodingException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof EncodingException) {
+				throw (EncodingException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new EncodingException(e);
+		}
+	}
+
+	private void addECC(ReedSolomonEncoder e, byte[] input, int offset, int length, byte[] output, int outputOffset) {
+		if (input == null) {
+			throw new IllegalArgumentException("The input to error correction code cannot be null");
+		}
+		if (length > (maxBytes - errorCorrectionBytes)) {
+			throw new IllegalArgumentException("The input to error correction code plus error correction bytes cannot be longer than 256");
+		}
+		//convert byte[] to int[] into an array large enough to hold the ECC
+		int[] ints = new int[length + errorCorrectionBytes];
+		for (int i = 0; i < length; i++) {
+			ints[i] = input[offset + i] & 0xFF;
+		}
+		e.encode(ints, errorCorrectionBytes);
+		//convert int[] to byte[]
+		for (int i = 0; i < ints.length; i++) {
+			output[outputOffset + i] = (byte) ints[i];			
+		}
+	}
+	
+	/*
+	 * Copies the data portion of a block to the output, correcting it first if needed.  Returns
+	 * true if the block passed the syndrome check and needed no correction.
+	 */
+	private boolean removeECC(ReedSolomonDecoder d, byte[] input, int offset, int length, int[] erasures, byte[] output, int outputOffset) throws ReedSolomonException {
+		if (input == null) {
+			throw new IllegalArgumentException("The input to error correction code cannot be null");
+		}
+		if (length > maxBytes) {
+			throw new IllegalArgumentException("The input to error correction code plus error correction bytes cannot be longer than 256");
+		}
+		int dataLength = length - errorCorrectionBytes;
+		//a block with a zero syndrome is already a valid codeword, so skip the full correction
+		if (ErrorCorrectingUtils.hasZeroSyndrome(input, offset, length, errorCorrectionBytes)) {
+			System.arraycopy(input, offset, output, outputOffset, dataLength);
+			return true;
+		}
+		int[] ints = new int[length];
+		for (int i = 0; i < ints.length; i++) {
+			ints[i] = input[offset + i] & 0xFF;
+		}
+		if (erasures == null) {
+			d.decode(ints, errorCorrectionBytes);
+		} else {
+			erasureDecoder.decode(ints, errorCorrectionBytes, erasures);
+		}
+		for (int i = 0; i < dataLength; i++) {
+			output[outputOffset + i] = (byte) ints[i];
+		}
+		return false;
+	}
+
+	/*
+	 * Processes single blocks using per-thread Reed Solomon state created by newState().
+	 */
+	private abstract class BlockProcessor<S> {
+		public abstract S newState();
+
+		public abstract void process(S state, int block) throws EncodingException;
+	}
+}
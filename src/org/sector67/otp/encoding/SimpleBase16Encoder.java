@@ -18,90 +18,40 @@
 
 package org.sector67.otp.encoding;
 
-import org.apache.commons.codec.DecoderException;
-import org.apache.commons.codec.binary.Hex;
-
 /**
  * 
  * @author scott.hasse@gmail.com
  *
  */
-public class SimpleBase16Encoder implements TextEncoder {
+public class SimpleBase16Encoder extends ChunkedTextEncoder {
 
-	protected int majorChunkSize = 20; //the size in bytes of major chunks
-	protected int minorChunkSize = 1; //the size in bytes of minor chunks
-	protected String minorChunkSeparator = "  ";
-	protected String majorChunkSeparator = "\n";
-	
-	/* 
-	 * Sets how many bytes in each major chunk
-	 */
-	public void setMajorChunkSize(int majorChunkSize) {
-		this.majorChunkSize = majorChunkSize;
-	}
+	private static final char[] DIGITS = "0123456789ABCDEF".toCharArray();
 
-	public void setMinorChunkSize(int minorChunkSize) {
-		this.minorChunkSize = minorChunkSize;
-	}
-
-	public void setMinorChunkSeparator(String minorChunkSeparator) {
-		this.minorChunkSeparator = minorChunkSeparator;
+	@Override
+	protected int getGroupBytes() {
+		return 1;
 	}
 
-	public void setMajorChunkSeparator(String majorChunkSeparator) {
-		this.majorChunkSeparator = majorChunkSeparator;
+	@Override
+	protected int getGroupChars() {
+		return 2;
 	}
 
 	@Override
-	public String encode(byte[] input) throws EncodingException {
-		return getChunkedBase16(input);
+	protected void encodeGroup(byte[] input, int offset, int length, StringBuilder output) {
+		int b = input[offset] & 0xFF;
+		output.append(DIGITS[b >>> 4]);
+		output.append(DIGITS[b & 0x0F]);
 	}
 
 	@Override
-	public byte[] decode(String input) throws EncodingException {
-		byte[] result = null;
-		input  = cleanInput(input);
-		try {
-			result =  Hex.decodeHex(input.toCharArray());
-		} catch (DecoderException e) {
-			throw new IllegalArgumentException("The provided input is not valid base16.", e);
+	protected int decodeGroup(CharSequence input, int offset, int length, byte[] output, int outputOffset) {
+		int high = (length == 2) ? Character.digit(input.charAt(offset), 16) : -1;
+		int low = (length == 2) ? Character.digit(input.charAt(offset + 1), 16) : -1;
+		if (high < 0 || low < 0) {
+			throw new IllegalArgumentException("The provided input is not valid base16.");
 		}
-		return result;
-	}
-	
-	protected String cleanInput(String input) {
-		input  = input.replaceAll("[" + minorChunkSeparator + majorChunkSeparator + "]","");
-		return input;
-	}
-	
-	protected String bytesToBase16(byte[] input) {
-		char[] hex = Hex.encodeHex(input);
-		String result = new String(hex);
-		return result.toUpperCase();
-	}
-
-	/*
-	 * 
-	 */
-	protected String getChunkedBase16(byte[] data) {
-		String base16 = bytesToBase16(data);
-	    StringBuffer result = new StringBuffer();
-	    //For each byte in, there are two characters returned
-	    int base16StringMajorChunkSize = majorChunkSize * 2;
-	    int base16StringMinorChunkSize = minorChunkSize * 2;
-	    int ilength = base16.length();
-	    for (int i = 0; i < ilength; i += base16StringMajorChunkSize) {
-	    	String line = base16.substring(i, Math.min(ilength, i + base16StringMajorChunkSize));
-	    	int jlength = line.length();
-	    	for (int j = 0; j < jlength; j += base16StringMinorChunkSize) {
-	            result.append(line.substring(j, Math.min(jlength, j + base16StringMinorChunkSize)));
-	            if (j + base16StringMinorChunkSize < jlength) {
-	            	result.append(minorChunkSeparator);
-	            }
-	    	}
-	        result.append(majorChunkSeparator);
-	    }
-	    return result.toString();
+		output[outputOffset] = (byte) ((high << 4) | low);
+		return 1;
 	}
-	
 }
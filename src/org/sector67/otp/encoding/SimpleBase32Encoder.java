@@ -0,0 +1,115 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.encoding;
+
+import java.util.Arrays;
+
+/**
+ * Encodes binary data as chunked base32 (RFC 4648), 5 bytes to 8 characters.  Major and minor
+ * chunk sizes are given in bytes and must be multiples of 5, by default a line holds 25 bytes
+ * as 40 characters.  Only the final group is padded with '='.  Lower case input is accepted
+ * when decoding, which helps with hand transcribed text.
+ * 
+ * @author scott.hasse@gmail.com
+ *
+ */
+public class SimpleBase32Encoder extends ChunkedTextEncoder {
+
+	private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567".toCharArray();
+	private static final int[] VALUES = new int[128];
+	private static final char PAD = '=';
+
+	static {
+		Arrays.fill(VALUES, -1);
+		for (int i = 0; i < ALPHABET.length; i++) {
+			VALUES[ALPHABET[i]] = i;
+			VALUES[Character.toLowerCase(ALPHABET[i])] = i;
+		}
+	}
+
+	public SimpleBase32Encoder() {
+		majorChunkSize = 25;
+		minorChunkSize = 5;
+	}
+
+	@Override
+	protected int getGroupBytes() {
+		return 5;
+	}
+
+	@Override
+	protected int getGroupChars() {
+		return 8;
+	}
+
+	@Override
+	protected void encodeGroup(byte[] input, int offset, int length, StringBuilder output) {
+		long bits = 0;
+		for (int i = 0; i < 5; i++) {
+			bits <<= 8;
+			if (i < length) {
+				bits |= input[offset + i] & 0xFF;
+			}
+		}
+		// each character holds 5 bits, so only (8 * length + 4) / 5 of them carry data
+		int chars = (8 * length + 4) / 5;
+		for (int i = 0; i < 8; i++) {
+			if (i < chars) {
+				output.append(ALPHABET[(int) (bits >>> (35 - 5 * i)) & 0x1F]);
+			} else {
+				output.append(PAD);
+			}
+		}
+	}
+
+	@Override
+	protected int decodeGroup(CharSequence input, int offset, int length, byte[] output, int outputOffset) {
+		if (length != 8) {
+			throw new IllegalArgumentException("The provided input is not valid base32.");
+		}
+		// padding is only allowed at the very end of the input
+		int chars = 8;
+		while (chars > 0 && input.charAt(offset + chars - 1) == PAD) {
+			chars--;
+		}
+		int bytes = 5 * chars / 8;
+		if (chars < 8 && (offset + length != input.length() || chars != (8 * bytes + 4) / 5 || bytes == 0)) {
+			throw new IllegalArgumentException("The provided input is not valid base32.");
+		}
+		long bits = 0;
+		for (int i = 0; i < 8; i++) {
+			bits <<= 5;
+			if (i < chars) {
+				bits |= value(input.charAt(offset + i));
+			}
+		}
+		for (int i = 0; i < bytes; i++) {
+			output[outputOffset + i] = (byte) (bits >>> (32 - 8 * i));
+		}
+		return bytes;
+	}
+
+	private int value(char c) {
+		int value = (c < VALUES.length) ? VALUES[c] : -1;
+		if (value < 0) {
+			throw new IllegalArgumentException("The provided input is not valid base32.");
+		}
+		return value;
+	}
+}
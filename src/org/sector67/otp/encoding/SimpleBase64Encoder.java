@@ -0,0 +1,108 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.encoding;
+
+import java.util.Arrays;
+
+/**
+ * Encodes binary data as chunked base64 (RFC 4648), 3 bytes to 4 characters.  Major and minor
+ * chunk sizes are given in bytes and must be multiples of 3, by default a line holds 30 bytes
+ * as 40 characters.  Only the final group is padded with '='.
+ * 
+ * @author scott.hasse@gmail.com
+ *
+ */
+public class SimpleBase64Encoder extends ChunkedTextEncoder {
+
+	private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+	private static final int[] VALUES = new int[128];
+	private static final char PAD = '=';
+
+	static {
+		Arrays.fill(VALUES, -1);
+		for (int i = 0; i < ALPHABET.length; i++) {
+			VALUES[ALPHABET[i]] = i;
+		}
+	}
+
+	public SimpleBase64Encoder() {
+		majorChunkSize = 30;
+		minorChunkSize = 3;
+	}
+
+	@Override
+	protected int getGroupBytes() {
+		return 3;
+	}
+
+	@Override
+	protected int getGroupChars() {
+		return 4;
+	}
+
+	@Override
+	protected void encodeGroup(byte[] input, int offset, int length, StringBuilder output) {
+		int bits = (input[offset] & 0xFF) << 16;
+		if (length > 1) {
+			bits |= (input[offset + 1] & 0xFF) << 8;
+		}
+		if (length > 2) {
+			bits |= input[offset + 2] & 0xFF;
+		}
+		output.append(ALPHABET[(bits >>> 18) & 0x3F]);
+		output.append(ALPHABET[(bits >>> 12) & 0x3F]);
+		output.append(length > 1 ? ALPHABET[(bits >>> 6) & 0x3F] : PAD);
+		output.append(length > 2 ? ALPHABET[bits & 0x3F] : PAD);
+	}
+
+	@Override
+	protected int decodeGroup(CharSequence input, int offset, int length, byte[] output, int outputOffset) {
+		if (length != 4) {
+			throw new IllegalArgumentException("The provided input is not valid base64.");
+		}
+		// padding is only allowed at the very end of the input
+		int chars = 4;
+		while (chars > 2 && input.charAt(offset + chars - 1) == PAD) {
+			chars--;
+		}
+		if (chars < 4 && offset + length != input.length()) {
+			throw new IllegalArgumentException("The provided input is not valid base64.");
+		}
+		int bits = 0;
+		for (int i = 0; i < 4; i++) {
+			bits <<= 6;
+			if (i < chars) {
+				bits |= value(input.charAt(offset + i));
+			}
+		}
+		int bytes = chars - 1;
+		for (int i = 0; i < bytes; i++) {
+			output[outputOffset + i] = (byte) (bits >>> (16 - 8 * i));
+		}
+		return bytes;
+	}
+
+	private int value(char c) {
+		int value = (c < VALUES.length) ? VALUES[c] : -1;
+		if (value < 0) {
+			throw new IllegalArgumentException("The provided input is not valid base64.");
+		}
+		return value;
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.encoding;
+
+import java.util.Arrays;
+
+/**
+ * Encodes binary data as chunked Z85 (ZeroMQ RFC 32), 4 bytes to 5 characters, which is the most
+ * compact of the text encoders.  Major and minor chunk sizes are given in bytes and must be
+ * multiples of 4, by default a line holds 32 bytes as 40 characters.
+ * 
+ * Z85 proper only encodes multiples of 4 bytes.  Like ascii85, a final group of n < 4 bytes is
+ * encoded as the first n + 1 characters of the zero padded group, and decoded by padding it with
+ * the highest digit.
+ * 
+ * @author scott.hasse@gmail.com
+ *
+ */
+public class SimpleZ85Encoder extends ChunkedTextEncoder {
+
+	private static final char[] ALPHABET = ("0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ"
+			+ ".-:+=^!/*?&<>()[]{}@%$#").toCharArray();
+	private static final int[] VALUES = new int[128];
+	private static final long[] POWERS = { 85L * 85 * 85 * 85, 85 * 85 * 85, 85 * 85, 85, 1 };
+
+	static {
+		Arrays.fill(VALUES, -1);
+		for (int i = 0; i < ALPHABET.length; i++) {
+			VALUES[ALPHABET[i]] = i;
+		}
+	}
+
+	public SimpleZ85Encoder() {
+		majorChunkSize = 32;
+		minorChunkSize = 4;
+	}
+
+	@Override
+	protected int getGroupBytes() {
+		return 4;
+	}
+
+	@Override
+	protected int getGroupChars() {
+		return 5;
+	}
+
+	@Override
+	protected void encodeGroup(byte[] input, int offset, int length, StringBuilder output) {
+		long value = 0;
+		for (int i = 0; i < 4; i++) {
+			value <<= 8;
+			if (i < length) {
+				value |= input[offset + i] & 0xFF;
+			}
+		}
+		for (int i = 0; i <= length; i++) {
+			output.append(ALPHABET[(int) ((value / POWERS[i]) % 85)]);
+		}
+	}
+
+	@Override
+	protected int decodeGroup(CharSequence input, int offset, int length, byte[] output, int outputOffset) {
+		if (length < 2) {
+			throw new IllegalArgumentException("The provided input is not valid Z85.");
+		}
+		long value = 0;
+		for (int i = 0; i < 5; i++) {
+			value = value * 85 + ((i < length) ? value(input.charAt(offset + i)) : 84);
+		}
+		if (value > 0xFFFFFFFFL) {
+			throw new IllegalArgumentException("The provided input is not valid Z85.");
+		}
+		int bytes = length - 1;
+		for (int i = 0; i < bytes; i++) {
+			output[outputOffset + i] = (byte) (value >>> (24 - 8 * i));
+		}
+		return bytes;
+	}
+
+	private int value(char c) {
+		int value = (c < VALUES.length) ? VALUES[c] : -1;
+		if (value < 0) {
+			throw new IllegalArgumentException("The provided input is not valid Z85.");
+		}
+		return value;
+	}
+}
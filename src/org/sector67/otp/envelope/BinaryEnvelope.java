@@ -0,0 +1,232 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.envelope;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.sector67.otp.encoding.EncodingException;
+import org.sector67.otp.encoding.TextEncoder;
+
+/**
+ * A compact binary form of an OTP message envelope for machine to machine links, where the text
+ * envelope and its base 16 armor would more than double the size of the payload.  All values are
+ * big endian:
+ * 
+ *   2 bytes   magic, "OT"
+ *   1 byte    format version, currently 1
+ *   1 byte    flags, bit 0 set if a MAC is present
+ *   2 bytes   length of the key name, followed by the UTF-8 key name
+ *   8 bytes   key offset
+ *   4 bytes   payload length
+ *   1 byte    MAC length, followed by the MAC, only if the MAC flag is set
+ *   n bytes   payload
+ * 
+ * Envelopes are written to and read from a ByteBuffer at its current position, so several can
+ * be packed into one buffer.  toText() and fromText() convert to and from the text envelope for
+ * human channels.
+ * 
+ * @author scott.hasse@gmail.com
+ */
+public class BinaryEnvelope {
+
+	public static final byte VERSION = 1;
+	private static final short MAGIC = 0x4F54;
+	private static final int FLAG_MAC = 0x01;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private String keyName;
+	private long keyOffset;
+	private byte[] payload;
+	private byte[] mac;
+
+	/*
+	 * Creates an envelope, the mac may be null
+	 */
+	public BinaryEnvelope(String keyName, long keyOffset, byte[] payload, byte[] mac) {
+		if (keyName == null) {
+			throw new IllegalArgumentException("The key name cannot be null");
+		}
+		if (payload == null) {
+			throw new IllegalArgumentException("The payload cannot be null");
+		}
+		if (mac != null && mac.length > 255) {
+			throw new IllegalArgumentException("The MAC cannot be longer than 255 bytes");
+		}
+		this.keyName = keyName;
+		this.keyOffset = keyOffset;
+		this.payload = payload;
+		this.mac = mac;
+	}
+
+	public String getKeyName() {
+		return keyName;
+	}
+
+	public long getKeyOffset() {
+		return keyOffset;
+	}
+
+	public byte[] getPayload() {
+		return payload;
+	}
+
+	public byte[] getMac() {
+		return mac;
+	}
+
+	/*
+	 * The number of bytes encode() will write
+	 */
+	public int getEncodedLength() {
+		int length = 2 + 1 + 1 + 2 + keyName.getBytes(UTF8).length + 8 + 4 + payload.length;
+		if (mac != null) {
+			length += 1 + mac.length;
+		}
+		return length;
+	}
+
+	/*
+	 * Writes the envelope at the current position of the buffer
+	 */
+	public void encode(ByteBuffer out) throws EnvelopeException {
+		byte[] name = keyName.getBytes(UTF8);
+		if (name.length > 0xFFFF) {
+			throw new EnvelopeException("The key name is too long for a binary envelope");
+		}
+		int length = 2 + 1 + 1 + 2 + name.length + 8 + 4 + payload.length + ((mac == null) ? 0 : 1 + mac.length);
+		if (out.remaining() < length) {
+			throw new EnvelopeException("The buffer has " + out.remaining() + " bytes remaining, the envelope needs " + length);
+		}
+		out.putShort(MAGIC);
+		out.put(VERSION);
+		out.put((byte) ((mac == null) ? 0 : FLAG_MAC));
+		out.putShort((short) name.length);
+		out.put(name);
+		out.putLong(keyOffset);
+		out.putInt(payload.length);
+		if (mac != null) {
+			out.put((byte) mac.length);
+			out.put(mac);
+		}
+		out.put(payload);
+	}
+
+	public ByteBuffer encode() throws EnvelopeException {
+		ByteBuffer result = ByteBuffer.allocate(getEncodedLength());
+		encode(result);
+		result.flip();
+		return result;
+	}
+
+	/*
+	 * Reads an envelope from the current position of the buffer, leaving the position just
+	 * after it.
+	 */
+	public static BinaryEnvelope decode(ByteBuffer in) throws EnvelopeException {
+		try {
+			if (in.getShort() != MAGIC) {
+				throw new EnvelopeException("The data is not a binary OTP envelope");
+			}
+			byte version = in.get();
+			if (version != VERSION) {
+				throw new EnvelopeException("Unsupported binary envelope version: " + version);
+			}
+			int flags = in.get();
+			byte[] name = new byte[in.getShort() & 0xFFFF];
+			in.get(name);
+			long keyOffset = in.getLong();
+			int payloadLength = in.getInt();
+			if (payloadLength < 0) {
+				throw new EnvelopeException("Invalid payload length: " + payloadLength);
+			}
+			byte[] mac = null;
+			if ((flags & FLAG_MAC) != 0) {
+				mac = new byte[in.get() & 0xFF];
+				in.get(mac);
+			}
+			if (in.remaining() < payloadLength) {
+				throw new EnvelopeException("The binary envelope is truncated");
+			}
+			byte[] payload = new byte[payloadLength];
+			in.get(payload);
+			return new BinaryEnvelope(new String(name, UTF8), keyOffset, payload, mac);
+		} catch (BufferUnderflowException e) {
+			throw new EnvelopeException("The binary envelope is truncated");
+		}
+	}
+
+	/*
+	 * Formats the envelope as a text envelope, encoding the payload with the given encoder
+	 */
+	public String toText(TextEncoder encoder) throws EncodingException {
+		StringBuilder result = new StringBuilder();
+		result.append(EnvelopeUtils.getEnvelopeHeader());
+		result.append(EnvelopeUtils.formatHeader(EnvelopeUtils.KEY_NAME_HEADER, keyName));
+		result.append(EnvelopeUtils.formatHeader(EnvelopeUtils.KEY_OFFSET_HEADER, Long.toString(keyOffset)));
+		if (mac != null) {
+			result.append(EnvelopeUtils.formatHeader(EnvelopeUtils.MAC_HEADER, new String(Hex.encodeHex(mac, false))));
+		}
+		result.append(EnvelopeUtils.getBodySeparator());
+		result.append(encoder.encode(payload));
+		result.append(EnvelopeUtils.getEnvelopeFooter());
+		return result.toString();
+	}
+
+	/*
+	 * Reads a text envelope, as produced by toText(), decoding the body with the given encoder
+	 */
+	public static BinaryEnvelope fromText(CharSequence text, TextEncoder encoder) throws EnvelopeException, EncodingException {
+		Envelope envelope = EnvelopeUtils.parse(text);
+		String keyName = envelope.getHeader(EnvelopeUtils.KEY_NAME_HEADER);
+		String keyOffset = envelope.getHeader(EnvelopeUtils.KEY_OFFSET_HEADER);
+		String macHeader = envelope.getHeader(EnvelopeUtils.MAC_HEADER);
+		if (keyName == null || keyOffset == null) {
+			throw new EnvelopeException("The envelope is missing its key name or key offset header");
+		}
+		try {
+			byte[] mac = (macHeader == null) ? null : Hex.decodeHex(macHeader.toCharArray());
+			byte[] payload = encoder.decode(envelope.getBody().toString());
+			return new BinaryEnvelope(keyName, Long.parseLong(keyOffset), payload, mac);
+		} catch (NumberFormatException e) {
+			throw new EnvelopeException(e);
+		} catch (DecoderException e) {
+			throw new EnvelopeException(e);
+		}
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof BinaryEnvelope)) {
+			return false;
+		}
+		BinaryEnvelope other = (BinaryEnvelope) o;
+		return keyName.equals(other.keyName) && keyOffset == other.keyOffset
+				&& Arrays.equals(payload, other.payload) && Arrays.equals(mac, other.mac);
+	}
+
+	@Override
+	public int hashCode() {
+		return keyName.hashCode() * 31 + (int) (keyOffset ^ (keyOffset >>> 32)) * 17 + Arrays.hashCode(payload);
+	}
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.envelope;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A parsed OTP message envelope: the headers in the order they appeared, and the body.  The
+ * body is a view of the original message text, still containing its line breaks, which the
+ * TextEncoder implementations treat as chunk separators.
+ * 
+ * @author scott.hasse@gmail.com
+ */
+public class Envelope {
+
+	private Map<String, String> headers;
+	private CharSequence body;
+
+	public Envelope(Map<String, String> headers, CharSequence body) {
+		this.headers = Collections.unmodifiableMap(headers);
+		this.body = body;
+	}
+
+	/*
+	 * Returns the value of the named header, or null if it was not present
+	 */
+	public String getHeader(String name) {
+		return headers.get(name);
+	}
+
+	public Map<String, String> getHeaders() {
+		return headers;
+	}
+
+	public CharSequence getBody() {
+		return body;
+	}
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.envelope;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.sector67.otp.EncryptionException;
+import org.sector67.otp.cipher.OneTimePadCipher;
+import org.sector67.otp.encoding.TextEncoder;
+
+/**
+ * A container framing many OTP message envelopes in one text, for batched transfer.  The batch
+ * starts with an index giving the character offset and length of each envelope, relative to
+ * the first character after the index:
+ * 
+ * ====== BEGIN OTP BATCH =====
+ * Messages: 2
+ * Message: 0 160
+ * Message: 160 172
+ * 
+ * ====== BEGIN OTP MESSAGE =====
+ * Key-Name: ...
+ * ...
+ * ====== END OTP BATCH =====
+ * 
+ * Parsing a batch only reads the index, so any single message can be sliced out and decrypted
+ * without looking at the others, and the whole batch can be decrypted in parallel.  Batches of
+ * ASCII envelopes, which is what the text encoders produce, have the same byte and character
+ * offsets, so the index can also be used to seek within a file.
+ * 
+ * @author scott.hasse@gmail.com
+ */
+public class EnvelopeBatch {
+
+	private static final String BEGIN_OTP_BATCH = "====== BEGIN OTP BATCH =====";
+	private static final String END_OTP_BATCH = "====== END OTP BATCH =====";
+	private static final String MESSAGES_HEADER = "Messages: ";
+	private static final String MESSAGE_HEADER = "Message: ";
+	// the shortest index entry, "Message: 0 0" and its line break
+	private static final int MIN_ENTRY_LENGTH = MESSAGE_HEADER.length() + 4;
+
+	private CharSequence text;
+	private int dataStart;
+	private int[] offsets;
+	private int[] lengths;
+
+	private EnvelopeBatch(CharSequence text, int dataStart, int[] offsets, int[] lengths) {
+		this.text = text;
+		this.dataStart = dataStart;
+		this.offsets = offsets;
+		this.lengths = lengths;
+	}
+
+	/*
+	 * Formats a single envelope carrying the key name and offset headers needed to decrypt it.
+	 */
+	public static String formatMessage(String keyName, int keyOffset, String body) {
+		StringBuilder result = new StringBuilder(body.length() + 128);
+		result.append(EnvelopeUtils.getEnvelopeHeader());
+		result.append(EnvelopeUtils.formatHeader(EnvelopeUtils.KEY_NAME_HEADER, keyName));
+		result.append(EnvelopeUtils.formatHeader(EnvelopeUtils.KEY_OFFSET_HEADER, Integer.toString(keyOffset)));
+		result.append(EnvelopeUtils.getBodySeparator());
+		result.append(body);
+		result.append(EnvelopeUtils.getEnvelopeFooter());
+		return result.toString();
+	}
+
+	/*
+	 * Frames the given envelopes into a single batch.
+	 */
+	public static String format(List<? extends CharSequence> envelopes) {
+		int total = 0;
+		for (CharSequence envelope : envelopes) {
+			total += envelope.length();
+		}
+		StringBuilder result = new StringBuilder(total + 32 * (envelopes.size() + 4));
+		result.append(BEGIN_OTP_BATCH).append('\n');
+		result.append(MESSAGES_HEADER).append(envelopes.size()).append('\n');
+		int offset = 0;
+		for (CharSequence envelope : envelopes) {
+			result.append(MESSAGE_HEADER).append(offset).append(' ').append(envelope.length()).append('\n');
+			offset += envelope.length();
+		}
+		result.append('\n');
+		for (CharSequence envelope : envelopes) {
+			result.append(envelope);
+		}
+		result.append(END_OTP_BATCH).append('\n');
+		return result.toString();
+	}
+
+	/*
+	 * Reads the index of a batch.  The envelopes themselves are not parsed until requested.
+	 */
+	public static EnvelopeBatch parse(CharSequence text) throws EnvelopeException {
+		LineCursor cursor = new LineCursor(text);
+		if (!BEGIN_OTP_BATCH.equals(cursor.next())) {
+			throw new EnvelopeException("The batch does not start with a begin marker");
+		}
+		int count = parseNumber(cursor.next(), MESSAGES_HEADER);
+		// every entry takes at least a minimal line, so a count the text cannot hold is refused
+		// before allocating, without reading past the index
+		if (count < 0 || count > (text.length() - cursor.position) / MIN_ENTRY_LENGTH) {
+			throw new EnvelopeException("Invalid batch message count: " + count);
+		}
+		int[] offsets = new int[count];
+		int[] lengths = new int[count];
+		for (int i = 0; i < count; i++) {
+			String line = cursor.next();
+			if (line == null || !line.startsWith(MESSAGE_HEADER)) {
+				throw new EnvelopeException("The batch index is missing entry " + i);
+			}
+			int space = line.indexOf(' ', MESSAGE_HEADER.length());
+			if (space < 0) {
+				throw new EnvelopeException("Invalid batch index entry: " + line);
+			}
+			offsets[i] = parseNumber(line.substring(0, space), MESSAGE_HEADER);
+			lengths[i] = parseNumber(line.substring(space + 1), "");
+		}
+		if (!"".equals(cursor.next())) {
+			throw new EnvelopeException("The batch index is not followed by a blank line");
+		}
+		int dataStart = cursor.position;
+		int dataEnd = findEndMarker(text);
+		if (dataEnd < dataStart) {
+			throw new EnvelopeException("The batch does not end with an end marker");
+		}
+		int dataLength = dataEnd - dataStart;
+		for (int i = 0; i < count; i++) {
+			if (offsets[i] < 0 || lengths[i] < 0 || lengths[i] > dataLength - offsets[i]) {
+				throw new EnvelopeException("Batch index entry " + i + " is outside the batch");
+			}
+		}
+		return new EnvelopeBatch(text, dataStart, offsets, lengths);
+	}
+
+	public int size() {
+		return offsets.length;
+	}
+
+	/*
+	 * Returns a view of the text of a single envelope in the batch
+	 */
+	public CharSequence getMessage(int index) {
+		int start = dataStart + offsets[index];
+		return CharBuffer.wrap(text, start, start + lengths[index]);
+	}
+
+	public Envelope getEnvelope(int index) throws EnvelopeException {
+		return EnvelopeUtils.parse(getMessage(index));
+	}
+
+	/*
+	 * Decrypts a single message using its key name and offset headers.
+	 */
+	public String decrypt(int index, OneTimePadCipher cipher, TextEncoder encoder) throws EncryptionException {
+		Envelope envelope = getEnvelope(index);
+		String keyName = envelope.getHeader(EnvelopeUtils.KEY_NAME_HEADER);
+		String keyOffset = envelope.getHeader(EnvelopeUtils.KEY_OFFSET_HEADER);
+		if (keyName == null || keyOffset == null) {
+			throw new EnvelopeException("Message " + index + " is missing its key name or key offset header");
+		}
+		int offset;
+		try {
+			offset = Integer.parseInt(keyOffset);
+		} catch (NumberFormatException e) {
+			throw new EnvelopeException(e);
+		}
+		byte[] ciphertext = encoder.decode(envelope.getBody().toString());
+		return cipher.decrypt(keyName, offset, ciphertext);
+	}
+
+	/*
+	 * Decrypts every message on the executor, returning the plain text in batch order.  The
+	 * key store behind the cipher must support concurrent decryption.
+	 */
+	public List<String> decryptAll(final OneTimePadCipher cipher, final TextEncoder encoder, ExecutorService executor) throws EncryptionException {
+		List<Callable<String>> tasks = new ArrayList<Callable<String>>();
+		for (int i = 0; i < size(); i++) {
+			final int index = i;
+			tasks.add(new Callable<String>() {
+				@Override
+				public String call() throws EncryptionException {
+					return decrypt(index, cipher, encoder);
+				}
+			});
+		}
+		List<String> result = new ArrayList<String>(size());
+		try {
+			for (Future<String> future : executor.invokeAll(tasks)) {
+				result.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new EncryptionException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof EncryptionException) {
+				throw (EncryptionException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new EncryptionException(e);
+		}
+		return result;
+	}
+
+	/*
+	 * Returns the position of the end marker closing the batch, ignoring trailing line breaks,
+	 * or -1 if the batch is not closed
+	 */
+	private static int findEndMarker(CharSequence text) {
+		int end = text.length();
+		while (end > 0 && (text.charAt(end - 1) == '\n' || text.charAt(end - 1) == '\r')) {
+			end--;
+		}
+		int start = end - END_OTP_BATCH.length();
+		if (start < 0 || !END_OTP_BATCH.contentEquals(text.subSequence(start, end))) {
+			return -1;
+		}
+		return start;
+	}
+
+	private static int parseNumber(String line, String prefix) throws EnvelopeException {
+		if (line == null || !line.startsWith(prefix)) {
+			throw new EnvelopeException("Expected a batch line starting with [" + prefix + "]");
+		}
+		try {
+			return Integer.parseInt(line.substring(prefix.length()).trim());
+		} catch (NumberFormatException e) {
+			throw new EnvelopeException(e);
+		}
+	}
+
+	/*
+	 * Reads lines from the start of the batch, tracking the position of the next line.
+	 */
+	private static class LineCursor {
+		private CharSequence text;
+		private int position = 0;
+
+		LineCursor(CharSequence text) {
+			this.text = text;
+		}
+
+		String next() {
+			int length = text.length();
+			if (position >= length) {
+				return null;
+			}
+			int end = position;
+			while (end < length && text.charAt(end) != '\n') {
+				end++;
+			}
+			String line = text.subSequence(position, end).toString();
+			position = Math.min(length, end + 1);
+			return line;
+		}
+	}
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.envelope;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.sector67.otp.encoding.EncodingException;
+import org.sector67.otp.encoding.TextEncoder;
+
+/**
+ * Reads an OTP message envelope incrementally from a Reader.  The headers are read first, then
+ * the body is made available line by line, as a Reader, or decoded straight to an OutputStream,
+ * so messages of any size can be read in constant memory.  Lines before the begin marker are
+ * ignored, as in EnvelopeUtils.parse().
+ * 
+ * @author scott.hasse@gmail.com
+ */
+public class EnvelopeReader {
+
+	private static final String BEGIN = EnvelopeUtils.getEnvelopeHeader().trim();
+	private static final String END = EnvelopeUtils.getEnvelopeFooter().trim();
+
+	private BufferedReader in;
+	private Map<String, String> headers = null;
+	// the first body line, when the header section was not followed by a blank line
+	private String pendingLine = null;
+	private boolean bodyFinished = false;
+
+	public EnvelopeReader(Reader in) {
+		this.in = (in instanceof BufferedReader) ? (BufferedReader) in : new BufferedReader(in);
+	}
+
+	/*
+	 * Reads the begin marker and the headers if that has not happened yet, and returns the
+	 * headers in the order they appeared.
+	 */
+	public Map<String, String> getHeaders() throws IOException, EnvelopeException {
+		if (headers == null) {
+			readHeaders();
+		}
+		return headers;
+	}
+
+	public String getHeader(String name) throws IOException, EnvelopeException {
+		return getHeaders().get(name);
+	}
+
+	/*
+	 * Returns the next line of the body without its line terminator, or null once the end
+	 * marker has been read.
+	 */
+	public String readBodyLine() throws IOException, EnvelopeException {
+		getHeaders();
+		if (bodyFinished) {
+			return null;
+		}
+		String line;
+		if (pendingLine != null) {
+			line = pendingLine;
+			pendingLine = null;
+		} else {
+			line = in.readLine();
+		}
+		if (line == null) {
+			throw new EnvelopeException("The message does not contain an end marker");
+		}
+		if (line.equals(END)) {
+			bodyFinished = true;
+			return null;
+		}
+		return line;
+	}
+
+	/*
+	 * Returns the body as a Reader, each line followed by a line feed.  The Reader ends at the
+	 * end marker; a missing end marker is reported as an IOException.
+	 */
+	public Reader getBodyReader() {
+		return new BodyReader();
+	}
+
+	/*
+	 * Decodes the body to the output linesPerChunk lines at a time.  Each group of lines must
+	 * decode on its own, so for the error correcting encoders linesPerChunk must be a multiple
+	 * of the interleave depth, and the body must have been written in whole lines, see
+	 * EnvelopeWriter.writeBody(InputStream, TextEncoder, int).
+	 */
+	public void readBody(OutputStream out, TextEncoder encoder, int linesPerChunk) throws IOException, EnvelopeException, EncodingException {
+		if (linesPerChunk < 1) {
+			throw new IllegalArgumentException("The number of lines per chunk must be at least 1");
+		}
+		StringBuilder chunk = new StringBuilder();
+		int lines = 0;
+		String line;
+		while ((line = readBodyLine()) != null) {
+			chunk.append(line).append('\n');
+			lines++;
+			if (lines == linesPerChunk) {
+				out.write(encoder.decode(chunk.toString()));
+				chunk.setLength(0);
+				lines = 0;
+			}
+		}
+		if (lines > 0) {
+			out.write(encoder.decode(chunk.toString()));
+		}
+	}
+
+	private void readHeaders() throws IOException, EnvelopeException {
+		String line;
+		do {
+			line = in.readLine();
+			if (line == null) {
+				throw new EnvelopeException("The message does not contain a begin marker");
+			}
+		} while (!line.equals(BEGIN));
+
+		Map<String, String> result = new LinkedHashMap<String, String>();
+		while ((line = in.readLine()) != null) {
+			int separator = line.indexOf(": ");
+			if (line.isEmpty()) {
+				break;
+			} else if (separator >= 0) {
+				result.put(line.substring(0, separator), line.substring(separator + 2));
+			} else {
+				// no blank line after the headers, the body starts here
+				pendingLine = line;
+				break;
+			}
+		}
+		headers = Collections.unmodifiableMap(result);
+	}
+
+	private class BodyReader extends Reader {
+		private String line = "";
+		private int position = 1;
+		private boolean eof = false;
+
+		@Override
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			int total = 0;
+			while (total < len) {
+				if (position > line.length()) {
+					if (eof || !nextLine()) {
+						break;
+					}
+				}
+				if (position == line.length()) {
+					cbuf[off + total++] = '\n';
+					position++;
+				} else {
+					int count = Math.min(len - total, line.length() - position);
+					line.getChars(position, position + count, cbuf, off + total);
+					position += count;
+					total += count;
+				}
+			}
+			return (total == 0) ? -1 : total;
+		}
+
+		private boolean nextLine() throws IOException {
+			try {
+				String next = readBodyLine();
+				if (next == null) {
+					eof = true;
+					return false;
+				}
+				line = next;
+				position = 0;
+				return true;
+			} catch (EnvelopeException e) {
+				throw new IOException(e);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+}
@@ -3,11 +3,17 @@ package org.sector67.otp.envelope;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.StringReader;
+import java.nio.CharBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class EnvelopeUtils {
 
 	private static final String END_OTP_MESSAGE = "====== END OTP MESSAGE =====\n";
 	private static final String BEGIN_OTP_MESSAGE = "====== BEGIN OTP MESSAGE =====\n";
+	public static final String KEY_NAME_HEADER = "Key-Name";
+	public static final String KEY_OFFSET_HEADER = "Key-Offset";
+	public static final String MAC_HEADER = "MAC";
 
 	public static String getEnvelopeHeader() {
 		return BEGIN_OTP_MESSAGE;
@@ -47,7 +53,7 @@ public class EnvelopeUtils {
 		BufferedReader bufReader = new BufferedReader(new StringReader(message));
 		String line=null;
 		//TODO: could implement more strict parsing
-		String result = "";
+		StringBuilder result = new StringBuilder(message.length());
 		try {
 			while( (line=bufReader.readLine()) != null )
 			{
@@ -58,13 +64,85 @@ public class EnvelopeUtils {
 				} else if (line.equals("")) {
 					//ignore
 				} else {
-					result = result + line;
+					result.append(line);
 				}
 			}
 		} catch (IOException e) {
 			e.printStackTrace();
 			throw new RuntimeException(e);
 		}
-		return result;
+		return result.toString();
+	}
+
+	/*
+	 * Parses a complete envelope in a single pass over the message.  Lines before the begin
+	 * marker are ignored, the header section ends at the first blank line and the body runs up
+	 * to the end marker.  The returned body is a view of the message rather than a copy.
+	 */
+	public static Envelope parse(CharSequence message) throws EnvelopeException {
+		Map<String, String> headers = new LinkedHashMap<String, String>();
+		String begin = BEGIN_OTP_MESSAGE.trim();
+		String end = END_OTP_MESSAGE.trim();
+		int length = message.length();
+		int position = 0;
+		boolean begun = false;
+		boolean inHeaders = false;
+		int bodyStart = -1;
+		while (position < length) {
+			int lineEnd = indexOf(message, '\n', position, length);
+			int next = (lineEnd < 0) ? length : lineEnd + 1;
+			int contentEnd = (lineEnd < 0) ? length : lineEnd;
+			if (contentEnd > position && message.charAt(contentEnd - 1) == '\r') {
+				contentEnd--;
+			}
+			if (!begun) {
+				if (regionMatches(message, position, contentEnd, begin)) {
+					begun = true;
+					inHeaders = true;
+				}
+			} else if (inHeaders) {
+				int separator = indexOf(message, ':', position, contentEnd);
+				if (contentEnd == position) {
+					inHeaders = false;
+					bodyStart = next;
+				} else if (separator >= 0 && separator + 1 < contentEnd && message.charAt(separator + 1) == ' ') {
+					headers.put(message.subSequence(position, separator).toString(),
+							message.subSequence(separator + 2, contentEnd).toString());
+				} else {
+					// no blank line after the headers, the body starts here
+					inHeaders = false;
+					bodyStart = position;
+					continue;
+				}
+			} else if (regionMatches(message, position, contentEnd, end)) {
+				return new Envelope(headers, CharBuffer.wrap(message, bodyStart, position));
+			}
+			position = next;
+		}
+		if (!begun) {
+			throw new EnvelopeException("The message does not contain a begin marker");
+		}
+		throw new EnvelopeException("The message does not contain an end marker");
+	}
+
+	private static int indexOf(CharSequence s, char c, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (s.charAt(i) == c) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean regionMatches(CharSequence s, int start, int end, String expected) {
+		if (end - start != expected.length()) {
+			return false;
+		}
+		for (int i = 0; i < expected.length(); i++) {
+			if (s.charAt(start + i) != expected.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
 	}
 }
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.envelope;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.Arrays;
+
+import org.sector67.otp.encoding.EncodingException;
+import org.sector67.otp.encoding.TextEncoder;
+
+/**
+ * Writes an OTP message envelope incrementally to a Writer, in the same format as the
+ * EnvelopeUtils methods: the begin marker, the headers, a blank line, the body and the end
+ * marker.  Nothing is buffered beyond what the underlying Writer buffers, so messages of any
+ * size can be written in constant memory.
+ * 
+ * @author scott.hasse@gmail.com
+ */
+public class EnvelopeWriter {
+
+	private Writer out;
+	private boolean begun = false;
+	private boolean inBody = false;
+	private boolean finished = false;
+
+	public EnvelopeWriter(Writer out) {
+		this.out = out;
+	}
+
+	/*
+	 * Writes a header, starting the envelope if needed.  Headers must come before the body.
+	 */
+	public void writeHeader(String name, String value) throws IOException {
+		if (inBody || finished) {
+			throw new IllegalStateException("Headers cannot be written after the body has started");
+		}
+		begin();
+		out.write(EnvelopeUtils.formatHeader(name, value));
+	}
+
+	/*
+	 * Writes already encoded body text.  May be called any number of times.
+	 */
+	public void writeBody(CharSequence text) throws IOException {
+		startBody();
+		out.append(text);
+	}
+
+	/*
+	 * Reads the input to the end, encoding and writing it chunkSize bytes at a time.  For the
+	 * result to match encoding the whole input at once, chunkSize must produce whole lines of
+	 * the encoder: a multiple of the major chunk size for the simple encoders, and a multiple of
+	 * (major chunk size - error correction bytes) * interleave depth for the error correcting
+	 * ones.  An EnvelopeReader can then decode the body a whole number of lines at a time.
+	 */
+	public void writeBody(InputStream in, TextEncoder encoder, int chunkSize) throws IOException, EncodingException {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("The chunk size must be at least 1");
+		}
+		startBody();
+		byte[] buffer = new byte[chunkSize];
+		int filled;
+		while ((filled = readFully(in, buffer)) > 0) {
+			byte[] chunk = (filled == chunkSize) ? buffer : Arrays.copyOf(buffer, filled);
+			out.write(encoder.encode(chunk));
+			if (filled < chunkSize) {
+				break;
+			}
+		}
+	}
+
+	/*
+	 * Writes the end marker, starting the envelope and body first if that has not happened yet,
+	 * and flushes the underlying Writer.  The Writer is not closed.
+	 */
+	public void finish() throws IOException {
+		if (finished) {
+			return;
+		}
+		startBody();
+		out.write(EnvelopeUtils.getEnvelopeFooter());
+		out.flush();
+		finished = true;
+	}
+
+	private void begin() throws IOException {
+		if (!begun) {
+			out.write(EnvelopeUtils.getEnvelopeHeader());
+			begun = true;
+		}
+	}
+
+	private void startBody() throws IOException {
+		if (finished) {
+			throw new IllegalStateException("The envelope has already been finished");
+		}
+		if (!inBody) {
+			begin();
+			out.write(EnvelopeUtils.getBodySeparator());
+			inBody = true;
+		}
+	}
+
+	private static int readFully(InputStream in, byte[] buffer) throws IOException {
+		int total = 0;
+		while (total < buffer.length) {
+			int read = in.read(buffer, total, buffer.length - total);
+			if (read < 0) {
+				break;
+			}
+			total += read;
+		}
+		return total;
+	}
+}
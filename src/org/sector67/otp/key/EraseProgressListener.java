@@ -0,0 +1,34 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.key;
+
+/**
+ * Receives progress while a key store wipes keys before deleting them.  Wiping may run on several
+ * threads at once, so implementations must be thread-safe.
+ * 
+ * @author scott.hasse@gmail.com
+ */
+public interface EraseProgressListener {
+	/**
+	 * Called after each chunk of key data has been erased
+	 * @param erased the number of bytes erased so far, across all keys being wiped
+	 * @param total the number of bytes to erase in all
+	 */
+	public void progress(long erased, long total);
+}
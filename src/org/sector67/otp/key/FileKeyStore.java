@@ -18,6 +18,10 @@
 
 package org.sector67.otp.key;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -26,31 +30,94 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
-import java.security.SecureRandom;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Properties;
-import java.util.Random;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
+import org.sector67.otp.metrics.Metrics;
+import org.sector67.otp.metrics.NoOpMetrics;
+import org.sector67.otp.metrics.Tracing;
 import org.sector67.otp.utils.FileUtils;
+import org.sector67.otp.utils.RandomUtils;
 
 /**
  * A file-based implementation of an OTP keystore, primarily for testing
  * purposes. Uses a properties file to store the key offsets.
  * 
+ * The offsets, key sizes and erased watermarks are loaded into an in-memory
+ * index by init() and kept in sync with every change, so queries such as
+ * getSize(), getKeyInfo() and listKeys() never touch the disk.  The index
+ * assumes this instance is the only writer of the key directory.
+ * 
+ * Unless replay detection is turned off, the ranges of each key that have been
+ * used for decryption are remembered in a per-key ".decrypted" file, and a
+ * request for key bytes overlapping any of them is refused, so a replayed or
+ * overlapping message cannot be decrypted a second time.
+ * 
+ * Key bytes below the erased watermark can be reclaimed, which rewrites the
+ * key file without them and records the reclaimed offset, so that disk usage
+ * follows the remaining key rather than its original size.  Offsets keep
+ * their meaning, only requests for reclaimed bytes fail.
+ * 
+ * With a segment size set, new keys are stored in the segmented layout instead
+ * of as a single file: a directory named after the key holding fixed-size
+ * segment files and a manifest (see SegmentedPad).  Generation, copy and
+ * erasure then work per segment, in parallel if an executor is set, and
+ * reclaiming drops whole segments.  Both layouts can coexist in one store.
+ * 
+ * deleteKey() and destroy() wipe the key data with the configured KeyEraser
+ * before deleting anything.  The wipe works through each key in fixed-size
+ * chunks, so memory use stays bounded, and runs regions of all the keys in
+ * parallel when an executor is set.
+ * 
+ * The store is safe for concurrent use.  Each key has its own ReentrantLock
+ * guarding its reservations, erasures and index updates, and a separate lock
+ * serializes writes of the property files, so threads working on different
+ * keys only meet briefly while the offsets are persisted.  No monitors are
+ * held across file I/O, so virtual threads are never pinned to their carrier,
+ * and random bytes come from a per-thread SecureRandom.
+ * 
  * @author scott.hasse@gmail.com
  * 
  */
 public class FileKeyStore implements TestableKeyStore {
 
 	String OFFSET_FILE_NAME = "offsets.properties";
+	String ERASED_FILE_NAME = "erased.properties";
+	String RECLAIMED_FILE_NAME = "reclaimed.properties";
+	String DECRYPTED_FILE_SUFFIX = ".decrypted";
+	String RECLAIM_FILE_SUFFIX = ".reclaim";
+	String RECLAIM_MARKER_SUFFIX = ".reclaiming";
+	String TEMP_FILE_SUFFIX = ".tmp";
+	static final int WIPE_CHUNK_SIZE = 1024 * 1024;
+	static final int WIPE_REGION_SIZE = 64 * 1024 * 1024;
 	String keyDirectory;
-	Random r = new SecureRandom();
 
 	private KeyEraser eraser = new MultiPassSecureRandomEraser();
+	private volatile ConcurrentSkipListMap<String, KeyInfo> index = null;
+	private ConcurrentHashMap<String, ReentrantLock> padLocks = new ConcurrentHashMap<String, ReentrantLock>();
+	private ReentrantLock persistLock = new ReentrantLock();
+	private ConcurrentHashMap<String, RangeSet> decrypted = new ConcurrentHashMap<String, RangeSet>();
+	private boolean replayDetection = true;
+	private int reclaimThreshold = 0;
+	private int segmentSize = 0;
+	private ExecutorService executor = null;
+	private Metrics metrics = NoOpMetrics.INSTANCE;
+	private KeyBufferPool pool = KeyBufferPool.getDefault();
 
 	public FileKeyStore(String keyDirectory) {
 		this.keyDirectory = keyDirectory;
@@ -79,6 +146,7 @@ public class FileKeyStore implements TestableKeyStore {
 			Properties p = new Properties();
 			writeOffsetFile(p);
 		}
+		index = loadIndex();
 	}
 
 	@Override
@@ -86,6 +154,55 @@ public class FileKeyStore implements TestableKeyStore {
 		this.eraser = eraser;
 	}
 
+	/*
+	 * Turns refusal of key ranges that were already used for decryption on or off
+	 */
+	public void setReplayDetection(boolean replayDetection) {
+		this.replayDetection = replayDetection;
+	}
+
+	/*
+	 * Reclaims a key automatically once at least this many erased bytes are waiting to be
+	 * reclaimed.  Zero, the default, leaves reclaiming to explicit calls to reclaim().
+	 */
+	public void setReclaimThreshold(int reclaimThreshold) {
+		this.reclaimThreshold = reclaimThreshold;
+	}
+
+	/*
+	 * Stores keys created from now on as segments of this many bytes.  Zero, the default, stores
+	 * each key as a single file.
+	 */
+	public void setSegmentSize(int segmentSize) {
+		if (segmentSize < 0) {
+			throw new IllegalArgumentException("The segment size cannot be negative");
+		}
+		this.segmentSize = segmentSize;
+	}
+
+	/*
+	 * Sets the executor used for per-segment work on segmented keys, null runs it in the calling
+	 * thread
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/*
+	 * Sets the pool that key buffers are leased from
+	 */
+	public void setKeyBufferPool(KeyBufferPool pool) {
+		this.pool = pool;
+	}
+
+	/*
+	 * Sets where the time taken to persist the offsets is reported, wrap the store in a
+	 * MeteredKeyStore for the other measurements
+	 */
+	public void setMetrics(Metrics metrics) {
+		this.metrics = (metrics == null) ? NoOpMetrics.INSTANCE : metrics;
+	}
+
 	/*
 	 * Provides the next bytes from the key and replaces those bytes with random
 	 * information updates the current index of the key
@@ -93,55 +210,137 @@ public class FileKeyStore implements TestableKeyStore {
 	@Override
 	public byte[] getKeyBytesForEncryption(String name, int length)
 			throws KeyException {
+		byte[] key = new byte[length];
+		reserve(name, key, length);
+		return key;
+	}
+
+	@Override
+	public KeyReservation reserve(String name, int length) throws KeyException {
+		KeyBuffer buffer = pool.lease(length);
+		try {
+			int offset = reserve(name, buffer.array(), length);
+			return new KeyReservation(name, offset, buffer);
+		} catch (KeyException | RuntimeException e) {
+			buffer.release();
+			throw e;
+		}
+	}
+
+	@Override
+	public KeyBuffer getKeyBufferForEncryption(String name, int length)
+			throws KeyException {
+		KeyBuffer buffer = pool.lease(length);
+		try {
+			reserve(name, buffer.array(), length);
+		} catch (KeyException | RuntimeException e) {
+			buffer.release();
+			throw e;
+		}
+		return buffer;
+	}
+
+	/*
+	 * Reads the next length bytes of the key into dest and advances the offset, returning the
+	 * offset the bytes started at
+	 */
+	private int reserve(String name, byte[] dest, int length)
+			throws KeyException {
 		if (name == null) {
 			throw new KeyException("You cannot use a null key name.");
 		}
-		Properties p = readOffsetFile();
-		if (!p.containsKey(name)) {
-			throw new KeyException(
-					"The requested key does not exist in this key store: "
-							+ name);
-		}
-		int offset = Integer.parseInt(p.getProperty(name));
-		byte[] key = new byte[length];
-		try (RandomAccessFile file = new RandomAccessFile(keyDirectory
-				+ File.separator + name, "r");) {
-			if (file.length() < offset + length) {
+		ReentrantLock lock = getPadLock(name);
+		lock.lock();
+		try {
+			KeyInfo info = getIndex().get(name);
+			if (info == null) {
 				throw new KeyException(
-						"The key is not long enough to provide the requested bytes");
+						"The requested key does not exist in this key store: "
+								+ name);
 			}
-			file.seek(offset);
-			file.read(key);
-		} catch (IOException e) {
-			throw new KeyException(e);
+			int offset = info.getCurrentOffset();
+			long trace = Tracing.start();
+			try {
+				readKeyBytes(info, offset, dest, length);
+				getIndex().put(name, info.withCurrentOffset(offset + length));
+				writeOffsets();
+				return offset;
+			} finally {
+				Tracing.end(trace, Tracing.KEY_RESERVE, name, offset, length);
+			}
+		} finally {
+			lock.unlock();
 		}
-
-		p = readOffsetFile();
-		p.setProperty(name, new Integer(offset + length).toString());
-		writeOffsetFile(p);
-		return key;
 	}
 
 	@Override
 	public Set<String> getKeyNames() throws KeyException {
-		Properties p = readOffsetFile();
-		return p.stringPropertyNames();
+		return new TreeSet<String>(getIndex().keySet());
 	}
 
 	@Override
 	public void copyKey(String source, String destination) throws KeyException {
-		File input = new File(keyDirectory + File.separator + source);
-		File output = new File(keyDirectory + File.separator + destination);
-		try {
-			copy(input, output);
-		} catch (IOException e) {
-			throw new KeyException(e);
-		}
+		copyKey(source, destination, false);
+	}
 
-		Properties p = readOffsetFile();
-		p.setProperty(destination, p.getProperty(source));
-		writeOffsetFile(p);
+	/*
+	 * Copies a key.  If tailOnly is set only the bytes from the current offset on are copied,
+	 * which is all the receiving party needs, and the copy starts out reclaimed up to there.
+	 */
+	public void copyKey(String source, String destination, boolean tailOnly) throws KeyException {
+		if (source == null) {
+			throw new KeyException("You cannot use a null key name.");
+		}
+		if (destination == null) {
+			throw new IllegalArgumentException(
+					"You cannot create a null key name.");
+		}
+		List<ReentrantLock> locks = lockPads(Arrays.asList(source, destination));
+		try {
+			KeyInfo info = getIndex().get(source);
+			if (info == null) {
+				throw new KeyException("The key does not exist: [" + source + "]");
+			}
+			// copying over a live pad would truncate it, and a failed copy would delete it
+			if (getIndex().containsKey(destination) || getKeyFile(destination).exists()) {
+				throw new IllegalArgumentException(
+						"You cannot create a key that already exists: " + destination);
+			}
+			File input = getKeyFile(source);
+			File output = getKeyFile(destination);
+			int from = info.getReclaimedOffset();
+			if (tailOnly) {
+				from = Math.max(from, Math.min(info.getCurrentOffset(), info.getSize()));
+			}
+			if (SegmentedPad.isSegmented(input)) {
+				from = (int) SegmentedPad.open(input).copyTo(output, from, executor).getReclaimedOffset();
+			} else {
+				try {
+					FileUtils.copyFile(input, output, from - info.getReclaimedOffset());
+				} catch (IOException e) {
+					output.delete();
+					throw new KeyException(e);
+				}
+			}
 
+			getIndex().put(destination, new KeyInfo(destination, info.getSize(),
+					info.getCurrentOffset(), info.getErasedOffset(), from));
+			writeOffsets();
+			writeErasedOffsets();
+			if (from > 0) {
+				writeReclaimedOffsets();
+			}
+			File ranges = getDecryptedFile(source);
+			if (ranges.exists()) {
+				try {
+					copy(ranges, getDecryptedFile(destination));
+				} catch (IOException e) {
+					throw new KeyException(e);
+				}
+			}
+		} finally {
+			unlockPads(locks);
+		}
 	}
 
 	@Override
@@ -150,43 +349,66 @@ public class FileKeyStore implements TestableKeyStore {
 			throw new IllegalArgumentException(
 					"You cannot create a null key name.");
 		}
-		Properties p = readOffsetFile();
-		if (p.containsKey(name)) {
-			throw new IllegalArgumentException(
-					"You cannot create a key that already exists: " + name);
-		}
+		ReentrantLock lock = getPadLock(name);
+		lock.lock();
 		try {
-			FileUtils.write(key, keyDirectory + File.separator + name);
-		} catch (IOException e) {
-			throw new KeyException(e);
+			if (getIndex().containsKey(name)) {
+				throw new IllegalArgumentException(
+						"You cannot create a key that already exists: " + name);
+			}
+			if (segmentSize > 0) {
+				SegmentedPad.create(getKeyFile(name), segmentSize, key.length).fill(key, executor);
+			} else {
+				try {
+					FileUtils.write(key, keyDirectory + File.separator + name);
+				} catch (IOException e) {
+					throw new KeyException(e);
+				}
+			}
+			getIndex().put(name, new KeyInfo(name, key.length, offset, 0));
+			writeOffsets();
+		} finally {
+			lock.unlock();
 		}
-		p = readOffsetFile();
-		p.setProperty(name, new Integer(offset).toString());
-		writeOffsetFile(p);
 	}
 
 	@Override
 	public void deleteKey(String name) throws KeyException {
-		Properties p = readOffsetFile();
-		if (p.containsKey(name)) {
-			// TODO: wipe file using the appropriate strategy
-			FileUtils.deleteFile(keyDirectory + File.separator + name);
-			p.remove(name);
-			writeOffsetFile(p);
+		deleteKey(name, null);
+	}
+
+	/*
+	 * Wipes a key with the configured eraser, and only then deletes it
+	 */
+	public void deleteKey(String name, EraseProgressListener listener) throws KeyException {
+		ReentrantLock lock = getPadLock(name);
+		lock.lock();
+		try {
+			if (getIndex().containsKey(name)) {
+				List<String> names = new ArrayList<String>();
+				names.add(name);
+				wipeKeys(names, listener);
+				deleteKeyFile(name);
+				FileUtils.deleteFile(getDecryptedFile(name).getPath());
+				decrypted.remove(name);
+				KeyInfo info = getIndex().remove(name);
+				writeOffsets();
+				if (info.getErasedOffset() > 0) {
+					writeErasedOffsets();
+				}
+				if (info.getReclaimedOffset() > 0) {
+					writeReclaimedOffsets();
+				}
+			}
+		} finally {
+			lock.unlock();
 		}
 	}
 
 	@Override
 	public List<String> listKeys() throws KeyException {
-		Properties p = readOffsetFile();
-		List<String> result = new ArrayList<String>();
-		Set<Object> keys = p.keySet();
-		for (Iterator<Object> iterator = keys.iterator(); iterator.hasNext();) {
-			String keyName = (String) iterator.next();
-			result.add(keyName);
-		}
-		Collections.sort(result);
-		return result;
+		// the index is kept sorted by name
+		return new ArrayList<String>(getIndex().keySet());
 	}
 
 	@Override
@@ -195,21 +417,31 @@ public class FileKeyStore implements TestableKeyStore {
 			throw new IllegalArgumentException(
 					"You cannot create a null key name.");
 		}
-		Properties p = readOffsetFile();
-		if (p.containsKey(name)) {
-			throw new IllegalArgumentException(
-					"You cannot create a key that already exists: " + name);
-		}
-		byte[] b = new byte[length];
-		r.nextBytes(b);
+		ReentrantLock lock = getPadLock(name);
+		lock.lock();
 		try {
-			FileUtils.write(b, keyDirectory + File.separator + name);
-		} catch (IOException e) {
-			throw new KeyException(e);
+			if (getIndex().containsKey(name)) {
+				throw new IllegalArgumentException(
+						"You cannot create a key that already exists: " + name);
+			}
+			long trace = Tracing.start();
+			if (segmentSize > 0) {
+				SegmentedPad.create(getKeyFile(name), segmentSize, length).fill(executor);
+			} else {
+				byte[] b = new byte[length];
+				RandomUtils.current().nextBytes(b);
+				try {
+					FileUtils.write(b, keyDirectory + File.separator + name);
+				} catch (IOException e) {
+					throw new KeyException(e);
+				}
+			}
+			getIndex().put(name, new KeyInfo(name, length, 0, 0));
+			writeOffsets();
+			Tracing.end(trace, Tracing.KEY_GENERATE, name, 0, length);
+		} finally {
+			lock.unlock();
 		}
-		p = readOffsetFile();
-		p.setProperty(name, "0");
-		writeOffsetFile(p);
 	}
 
 	/*
@@ -217,36 +449,390 @@ public class FileKeyStore implements TestableKeyStore {
 	 * and attempts to delete the keystore directory
 	 */
 	public void destroy() throws KeyException {
-		// TODO: make this use the KeyEraser to clear data before deleting
-		Properties p = readOffsetFile();
-		Set<String> names = p.stringPropertyNames();
-		for (String name : names) {
-			FileUtils.deleteFile(keyDirectory + File.separator + name);
+		destroy(null);
+	}
+
+	/*
+	 * Destroys this keystore as destroy() does, reporting the progress of the wipe.  Nothing is
+	 * deleted unless every key was wiped successfully.  Every pad lock is held from the wipe to
+	 * the delete, so no reservation, erasure or reclaim can touch a key while it is destroyed,
+	 * and once it is done the store refuses further use.
+	 */
+	public void destroy(EraseProgressListener listener) throws KeyException {
+		Set<String> names = getKeyNames();
+		List<ReentrantLock> locks = lockPads(names);
+		try {
+			// a key created before the locks were taken must be wiped too
+			while (!names.equals(getKeyNames())) {
+				unlockPads(locks);
+				names = getKeyNames();
+				locks = lockPads(names);
+			}
+			wipeKeys(names, listener);
+			for (String name : names) {
+				deleteKeyFile(name);
+				FileUtils.deleteFile(getDecryptedFile(name).getPath());
+			}
+			decrypted.clear();
+			persistLock.lock();
+			try {
+				FileUtils.deleteFile(keyDirectory + File.separator + OFFSET_FILE_NAME);
+				FileUtils.deleteFile(keyDirectory + File.separator + ERASED_FILE_NAME);
+				FileUtils.deleteFile(keyDirectory + File.separator + RECLAIMED_FILE_NAME);
+				FileUtils.deleteFile(keyDirectory);
+				index = null;
+			} finally {
+				persistLock.unlock();
+			}
+		} finally {
+			unlockPads(locks);
 		}
-		FileUtils.deleteFile(keyDirectory + File.separator + OFFSET_FILE_NAME);
-		FileUtils.deleteFile(keyDirectory);
 	}
 
-	private void writeOffsetFile(Properties props) {
+	/*
+	 * Erases every stored byte of the keys that is not already below the erased watermark.  Each
+	 * key is split into regions that can be erased in parallel, and each region is erased a chunk
+	 * at a time, so the eraser never holds more than one chunk per thread.
+	 */
+	private void wipeKeys(Collection<String> names, final EraseProgressListener listener)
+			throws KeyException {
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		final AtomicLong wiped = new AtomicLong();
+		final long total = getWipeTotal(names);
+		for (String name : names) {
+			KeyInfo info = getKeyInfo(name);
+			final File keyFile = getKeyFile(name);
+			final boolean segmented = SegmentedPad.isSegmented(keyFile);
+			final int base = info.getReclaimedOffset();
+			int start = Math.max(info.getErasedOffset(), base);
+			for (long region = start; region < info.getSize(); region += WIPE_REGION_SIZE) {
+				final int from = (int) region;
+				final int to = (int) Math.min(region + WIPE_REGION_SIZE, info.getSize());
+				tasks.add(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						wipeRegion(keyFile, segmented, base, from, to, wiped, total, listener);
+						return null;
+					}
+				});
+			}
+		}
 		try {
-			File offsetFile = new File(keyDirectory + File.separator
-					+ OFFSET_FILE_NAME);
-			OutputStream out = new FileOutputStream(offsetFile);
-			props.store(out, "A property file storing the key offsets");
+			if (executor == null) {
+				for (Callable<Void> task : tasks) {
+					task.call();
+				}
+				return;
+			}
+			List<Future<Void>> futures = executor.invokeAll(tasks);
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new KeyException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof KeyException) {
+				throw (KeyException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new KeyException(e);
+		} catch (KeyException | RuntimeException e) {
+			throw e;
 		} catch (Exception e) {
-			e.printStackTrace();
+			throw new KeyException(e);
+		}
+	}
+
+	private long getWipeTotal(Collection<String> names) throws KeyException {
+		long total = 0;
+		for (String name : names) {
+			KeyInfo info = getKeyInfo(name);
+			total += Math.max(0, info.getSize() - Math.max(info.getErasedOffset(), info.getReclaimedOffset()));
+		}
+		return total;
+	}
+
+	private void wipeRegion(File keyFile, boolean segmented, int base, int from, int to,
+			AtomicLong wiped, long total, EraseProgressListener listener) throws KeyException {
+		if (segmented) {
+			SegmentedPad pad = SegmentedPad.open(keyFile);
+			for (long position = from; position < to; position += WIPE_CHUNK_SIZE) {
+				int n = (int) Math.min(WIPE_CHUNK_SIZE, to - position);
+				pad.erase(eraser, position, n, null);
+				reportWiped(n, wiped, total, listener);
+			}
+			return;
+		}
+		RandomAccessFile file;
+		try {
+			file = new RandomAccessFile(keyFile, "rw");
+		} catch (FileNotFoundException e) {
+			throw new KeyException(e);
+		}
+		KeyData kd = new FileKeyData(file, base);
+		try {
+			for (long position = from; position < to; position += WIPE_CHUNK_SIZE) {
+				int n = (int) Math.min(WIPE_CHUNK_SIZE, to - position);
+				eraser.erase(kd, (int) position, n);
+				reportWiped(n, wiped, total, listener);
+			}
+		} finally {
+			kd.close();
+		}
+	}
+
+	private void reportWiped(int bytes, AtomicLong wiped, long total, EraseProgressListener listener) {
+		long done = wiped.addAndGet(bytes);
+		if (listener != null) {
+			listener.progress(done, total);
+		}
+	}
+
+	/*
+	 * Returns the index, loading it if init() has not been called
+	 */
+	private ConcurrentSkipListMap<String, KeyInfo> getIndex() throws KeyException {
+		ConcurrentSkipListMap<String, KeyInfo> result = index;
+		if (result == null) {
+			persistLock.lock();
+			try {
+				if (index == null) {
+					index = loadIndex();
+				}
+				result = index;
+			} finally {
+				persistLock.unlock();
+			}
+		}
+		return result;
+	}
+
+	/*
+	 * Returns the lock guarding reservations, erasures and index updates of one key.  Locks are
+	 * always taken in the order pad lock, then persist lock.
+	 */
+	private ReentrantLock getPadLock(String name) {
+		ReentrantLock lock = padLocks.get(name);
+		if (lock == null) {
+			ReentrantLock created = new ReentrantLock();
+			lock = padLocks.putIfAbsent(name, created);
+			if (lock == null) {
+				lock = created;
+			}
+		}
+		return lock;
+	}
+
+	/*
+	 * Takes the pad locks of several keys in name order, so two callers locking overlapping
+	 * sets cannot deadlock.  Returns the locks taken, for unlockPads.
+	 */
+	private List<ReentrantLock> lockPads(Collection<String> names) {
+		List<ReentrantLock> locks = new ArrayList<ReentrantLock>();
+		for (String name : new TreeSet<String>(names)) {
+			ReentrantLock lock = getPadLock(name);
+			lock.lock();
+			locks.add(lock);
+		}
+		return locks;
+	}
+
+	private void unlockPads(List<ReentrantLock> locks) {
+		for (int i = locks.size() - 1; i >= 0; i--) {
+			locks.get(i).unlock();
+		}
+	}
+
+	private ConcurrentSkipListMap<String, KeyInfo> loadIndex() throws KeyException {
+		ConcurrentSkipListMap<String, KeyInfo> result = new ConcurrentSkipListMap<String, KeyInfo>();
+		Properties offsets = readOffsetFile();
+		Properties erased = readPropertiesFile(ERASED_FILE_NAME, false);
+		Properties reclaimed = readPropertiesFile(RECLAIMED_FILE_NAME, false);
+		List<String> recovered = new ArrayList<String>();
+		for (String name : offsets.stringPropertyNames()) {
+			try {
+				int offset = Integer.parseInt(offsets.getProperty(name));
+				int erasedOffset = Integer.parseInt(erased.getProperty(name, "0"));
+				int reclaimedOffset = Integer.parseInt(reclaimed.getProperty(name, "0"));
+				if (getReclaimMarkerFile(name).exists()) {
+					reclaimedOffset = recoverReclaim(name, reclaimedOffset);
+					reclaimed.setProperty(name, Integer.toString(reclaimedOffset));
+					recovered.add(name);
+				} else {
+					recoverReclaim(name, reclaimedOffset);
+				}
+				File keyFile = getKeyFile(name);
+				int size;
+				if (SegmentedPad.isSegmented(keyFile)) {
+					SegmentedPad pad = SegmentedPad.open(keyFile);
+					size = (int) pad.getSize();
+					reclaimedOffset = (int) pad.getReclaimedOffset();
+				} else {
+					size = reclaimedOffset + (int) keyFile.length();
+				}
+				result.put(name, new KeyInfo(name, size, offset, erasedOffset, reclaimedOffset));
+			} catch (NumberFormatException e) {
+				throw new KeyException(e);
+			}
+		}
+		if (!recovered.isEmpty()) {
+			writePropertiesFile(reclaimed, RECLAIMED_FILE_NAME, "A property file storing the reclaimed key offsets");
+			for (String name : recovered) {
+				FileUtils.deleteFile(getReclaimMarkerFile(name).getPath());
+			}
+		}
+		return result;
+	}
+
+	private File getReclaimFile(String name) {
+		return new File(keyDirectory + File.separator + name + RECLAIM_FILE_SUFFIX);
+	}
+
+	private File getReclaimMarkerFile(String name) {
+		return new File(keyDirectory + File.separator + name + RECLAIM_MARKER_SUFFIX);
+	}
+
+	/*
+	 * Completes or rolls back a reclaim interrupted by a crash, returning the reclaimed offset
+	 * the key file now starts at.  Without a marker any copy is incomplete and is discarded;
+	 * with one the copy, if it has not been moved yet, replaces the key file.
+	 */
+	private int recoverReclaim(String name, int reclaimedOffset) throws KeyException {
+		File copy = getReclaimFile(name);
+		File marker = getReclaimMarkerFile(name);
+		if (!marker.exists()) {
+			if (copy.exists()) {
+				FileUtils.deleteFile(copy.getPath());
+			}
+			return reclaimedOffset;
+		}
+		Properties pending = readPropertiesFile(marker.getName(), true);
+		int target = Integer.parseInt(pending.getProperty(name));
+		if (copy.exists()) {
+			try {
+				replaceFile(copy, getKeyFile(name));
+			} catch (IOException e) {
+				throw new KeyException(e);
+			}
+		}
+		return target;
+	}
+
+	private File getKeyFile(String name) {
+		return new File(keyDirectory + File.separator + name);
+	}
+
+	private void deleteKeyFile(String name) throws KeyException {
+		File keyFile = getKeyFile(name);
+		if (SegmentedPad.isSegmented(keyFile)) {
+			SegmentedPad.open(keyFile).delete();
+		} else {
+			FileUtils.deleteFile(keyFile.getPath());
+		}
+	}
+
+	private void writeOffsets() throws KeyException {
+		// snapshot and write under one lock, so an older snapshot never overwrites a newer one
+		persistLock.lock();
+		try {
+			long start = System.nanoTime();
+			Properties p = new Properties();
+			for (KeyInfo info : getIndex().values()) {
+				p.setProperty(info.getName(), Integer.toString(info.getCurrentOffset()));
+			}
+			writeOffsetFile(p);
+			// the offsets are already advanced, a failing metrics sink must not lose the bytes
+			try {
+				metrics.offsetsPersisted(System.nanoTime() - start);
+			} catch (RuntimeException e) {
+				// metrics are best effort
+			}
+		} finally {
+			persistLock.unlock();
+		}
+	}
+
+	private void writeErasedOffsets() throws KeyException {
+		// snapshot and write under one lock, so an older snapshot never overwrites a newer one
+		persistLock.lock();
+		try {
+			Properties p = new Properties();
+			for (KeyInfo info : getIndex().values()) {
+				if (info.getErasedOffset() > 0) {
+					p.setProperty(info.getName(), Integer.toString(info.getErasedOffset()));
+				}
+			}
+			writePropertiesFile(p, ERASED_FILE_NAME, "A property file storing the erased key watermarks");
+		} finally {
+			persistLock.unlock();
+		}
+	}
+
+	private void writeReclaimedOffsets() throws KeyException {
+		// snapshot and write under one lock, so an older snapshot never overwrites a newer one
+		persistLock.lock();
+		try {
+			Properties p = new Properties();
+			for (KeyInfo info : getIndex().values()) {
+				if (info.getReclaimedOffset() > 0) {
+					p.setProperty(info.getName(), Integer.toString(info.getReclaimedOffset()));
+				}
+			}
+			writePropertiesFile(p, RECLAIMED_FILE_NAME, "A property file storing the reclaimed key offsets");
+		} finally {
+			persistLock.unlock();
+		}
+	}
+
+	private void writeOffsetFile(Properties props) throws KeyException {
+		long trace = Tracing.start();
+		try {
+			writePropertiesFile(props, OFFSET_FILE_NAME, "A property file storing the key offsets");
+		} finally {
+			Tracing.end(trace, Tracing.OFFSETS_WRITE, null, 0, props.size());
+		}
+	}
+
+	/*
+	 * Writes the properties to a temporary file and renames it over the old one, so a crash
+	 * leaves either the old or the new values
+	 */
+	private void writePropertiesFile(Properties props, String fileName, String comment) throws KeyException {
+		File file = new File(keyDirectory + File.separator + fileName);
+		File temp = new File(file.getPath() + TEMP_FILE_SUFFIX);
+		persistLock.lock();
+		try {
+			try (OutputStream out = new FileOutputStream(temp)) {
+				props.store(out, comment);
+			}
+			replaceFile(temp, file);
+		} catch (IOException e) {
+			temp.delete();
+			throw new KeyException(e);
+		} finally {
+			persistLock.unlock();
 		}
 	}
 
 	private Properties readOffsetFile() throws KeyException {
+		long trace = Tracing.start();
+		Properties props = readPropertiesFile(OFFSET_FILE_NAME, true);
+		Tracing.end(trace, Tracing.OFFSETS_READ, null, 0, props.size());
+		return props;
+	}
+
+	private Properties readPropertiesFile(String fileName, boolean required) throws KeyException {
 		Properties props = new Properties();
-		InputStream is = null;
-		try {
-			File offsetFile = new File(keyDirectory + File.separator
-					+ OFFSET_FILE_NAME);
-			is = new FileInputStream(offsetFile);
+		File file = new File(keyDirectory + File.separator + fileName);
+		if (!required && !file.exists()) {
+			return props;
+		}
+		try (InputStream is = new FileInputStream(file)) {
 			props.load(is);
-			is.close();
 		} catch (IOException e) {
 			throw new KeyException(e);
 		}
@@ -257,9 +843,18 @@ public class FileKeyStore implements TestableKeyStore {
 
 	public class FileKeyData implements KeyData {
 		private RandomAccessFile key;
+		private int base;
 
 		public FileKeyData(RandomAccessFile key) {
+			this(key, 0);
+		}
+
+		/*
+		 * Wraps a key file whose first byte is the key byte at offset base
+		 */
+		public FileKeyData(RandomAccessFile key, int base) {
 			this.key = key;
+			this.base = base;
 		}
 
 		public void close() throws KeyException {
@@ -272,7 +867,7 @@ public class FileKeyStore implements TestableKeyStore {
 
 		public void seek(int position) throws KeyException {
 			try {
-				key.seek(position);
+				key.seek(position - base);
 			} catch (IOException e) {
 				throw new KeyException(e);
 			}
@@ -290,83 +885,326 @@ public class FileKeyStore implements TestableKeyStore {
 	}
 
 	private void copy(File src, File dst) throws IOException {
-		InputStream in = new FileInputStream(src);
-		OutputStream out = new FileOutputStream(dst);
-
-		// Transfer bytes from in to out
-		byte[] buf = new byte[1024];
-		int len;
-		while ((len = in.read(buf)) > 0) {
-			out.write(buf, 0, len);
-		}
-		in.close();
-		out.close();
+		FileUtils.copyFile(src, dst, 0);
 	}
 
 	@Override
 	public int getCurrentOffset(String keyName) throws KeyException {
-		int offset = 0;
-		Properties p = readOffsetFile();
-		if (p.containsKey(keyName)) {
-			String offsetString = p.getProperty(keyName);
-			try {
-				offset = Integer.parseInt(offsetString);
-			} catch (NumberFormatException e) {
-				throw new KeyException(e);
-			}
-		} else {
-			throw new KeyException("The key does not exist: [" + keyName + "]");
-		}
-		return offset;
+		return getKeyInfo(keyName).getCurrentOffset();
 	}
 
 	@Override
 	public int getSize(String keyName) throws KeyException {
-		// TODO Auto-generated method stub
-		return 0;
+		return getKeyInfo(keyName).getSize();
+	}
+
+	@Override
+	public KeyInfo getKeyInfo(String keyName) throws KeyException {
+		KeyInfo info = getIndex().get(keyName);
+		if (info == null) {
+			throw new KeyException("The key does not exist: [" + keyName + "]");
+		}
+		return info;
+	}
+
+	/*
+	 * Returns the consumption state of every key, sorted by name
+	 */
+	public List<KeyInfo> getAllKeyInfo() throws KeyException {
+		return new ArrayList<KeyInfo>(getIndex().values());
 	}
 
 	@Override
 	public byte[] getKeyBytesForDecryption(String name, int offset, int length)
 			throws KeyException {
+		byte[] key = new byte[length];
+		read(name, offset, key, length);
+		try {
+			markDecrypted(name, offset, length);
+		} catch (KeyException e) {
+			Arrays.fill(key, (byte) 0);
+			throw e;
+		}
+		return key;
+	}
+
+	@Override
+	public KeyBuffer getKeyBufferForDecryption(String name, int offset, int length)
+			throws KeyException {
+		KeyBuffer buffer = readKeyBufferForDecryption(name, offset, length);
+		try {
+			markDecrypted(name, offset, length);
+		} catch (KeyException | RuntimeException e) {
+			buffer.release();
+			throw e;
+		}
+		return buffer;
+	}
+
+	@Override
+	public KeyBuffer readKeyBufferForDecryption(String name, int offset, int length)
+			throws KeyException {
+		KeyBuffer buffer = pool.lease(length);
+		try {
+			read(name, offset, buffer.array(), length);
+		} catch (KeyException | RuntimeException e) {
+			buffer.release();
+			throw e;
+		}
+		return buffer;
+	}
+
+	/*
+	 * Records a range as used for decryption, persisting the ranges before returning
+	 */
+	@Override
+	public void markDecrypted(String name, int offset, int length) throws KeyException {
+		if (!replayDetection) {
+			return;
+		}
+		ReentrantLock lock = getPadLock(name);
+		lock.lock();
+		try {
+			RangeSet used = getDecryptedRanges(name);
+			checkNotDecrypted(name, used, offset, length);
+			used.add(offset, length);
+			writeDecryptedRanges(name, used);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * Reads length key bytes at offset into dest, refusing ranges already used for decryption
+	 * unless replay detection is off.  The range is not marked used here.  The index entry and
+	 * the file are read under the pad lock, so a reclaim cannot swap the file and its base
+	 * between the two.
+	 */
+	private void read(String name, int offset, byte[] dest, int length)
+			throws KeyException {
 		if (name == null) {
 			throw new KeyException("You cannot use a null key name.");
 		}
-		Properties p = readOffsetFile();
-		if (!p.containsKey(name)) {
-			throw new KeyException(
-					"The requested key does not exist in this key store: "
-							+ name);
+		long trace = Tracing.start();
+		ReentrantLock lock = getPadLock(name);
+		lock.lock();
+		try {
+			KeyInfo info = getIndex().get(name);
+			if (info == null) {
+				throw new KeyException(
+						"The requested key does not exist in this key store: "
+								+ name);
+			}
+			if (replayDetection) {
+				checkNotDecrypted(name, getDecryptedRanges(name), offset, length);
+			}
+			readKeyBytes(info, offset, dest, length);
+		} finally {
+			lock.unlock();
+			Tracing.end(trace, Tracing.KEY_READ, name, offset, length);
 		}
-		byte[] key = new byte[length];
-		try (RandomAccessFile file = new RandomAccessFile(keyDirectory
-				+ File.separator + name, "r");) {
-			if (file.length() < offset + length) {
+	}
+
+	private void checkNotDecrypted(String name, RangeSet used, int offset, int length)
+			throws KeyException {
+		if (used.intersects(offset, length)) {
+			throw new KeyException("The requested bytes of key [" + name
+					+ "] overlap bytes that were already used for decryption");
+		}
+	}
+
+	/*
+	 * Reads key bytes by key offset into the start of dest, allowing for any reclaimed prefix of
+	 * the key file
+	 */
+	private void readKeyBytes(KeyInfo info, int offset, byte[] dest, int length)
+			throws KeyException {
+		int base = info.getReclaimedOffset();
+		if (offset < base) {
+			throw new KeyException("The requested bytes of key [" + info.getName()
+					+ "] have been erased and reclaimed");
+		}
+		File keyFile = getKeyFile(info.getName());
+		if (SegmentedPad.isSegmented(keyFile)) {
+			SegmentedPad.open(keyFile).read(offset, dest, length);
+			return;
+		}
+		try (RandomAccessFile file = new RandomAccessFile(keyFile, "r");) {
+			if (file.length() < offset - base + length) {
 				throw new KeyException(
 						"The key is not long enough to provide the requested bytes");
 			}
-			file.seek(offset);
-			file.read(key);
+			file.seek(offset - base);
+			file.readFully(dest, 0, length);
 		} catch (IOException e) {
 			throw new KeyException(e);
 		}
-		return key;
+	}
+
+	/*
+	 * Returns the ranges of a key already used for decryption, loading them on first use
+	 */
+	private RangeSet getDecryptedRanges(String name) throws KeyException {
+		RangeSet ranges = decrypted.get(name);
+		if (ranges == null) {
+			ranges = readDecryptedRanges(name);
+			RangeSet existing = decrypted.putIfAbsent(name, ranges);
+			if (existing != null) {
+				ranges = existing;
+			}
+		}
+		return ranges;
+	}
+
+	private File getDecryptedFile(String name) {
+		return new File(keyDirectory + File.separator + name + DECRYPTED_FILE_SUFFIX);
+	}
+
+	private RangeSet readDecryptedRanges(String name) throws KeyException {
+		File file = getDecryptedFile(name);
+		if (!file.exists()) {
+			return new RangeSet();
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)))) {
+			return RangeSet.readFrom(in);
+		} catch (IOException e) {
+			throw new KeyException(e);
+		}
+	}
+
+	/*
+	 * Writes the ranges to a temporary file and renames it over the old one, so a crash never
+	 * leaves a partly written set
+	 */
+	private void writeDecryptedRanges(String name, RangeSet ranges) throws KeyException {
+		File file = getDecryptedFile(name);
+		File temp = new File(file.getPath() + TEMP_FILE_SUFFIX);
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(temp)))) {
+				ranges.writeTo(out);
+			}
+			replaceFile(temp, file);
+		} catch (IOException e) {
+			temp.delete();
+			throw new KeyException(e);
+		}
+	}
+
+	private void replaceFile(File source, File target) throws IOException {
+		Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
 	}
 
 	public void eraseKeyBytes(String keyName, int pos, int length) throws KeyException {
 		if (keyName == null) {
 			throw new KeyException("You cannot use a null key name.");
 		}
-		RandomAccessFile key;
+		ReentrantLock lock = getPadLock(keyName);
+		lock.lock();
 		try {
-			key = new RandomAccessFile(keyDirectory + File.separator + keyName,
-					"rw");
-			KeyData kd = new FileKeyData(key);
-			eraser.erase(kd, pos, length);
-		} catch (FileNotFoundException e) {
-			throw new KeyException(e);
+			long trace = Tracing.start();
+			KeyInfo info = getIndex().get(keyName);
+			int base = (info == null) ? 0 : info.getReclaimedOffset();
+			// reclaimed bytes are already gone, only erase what is still stored
+			int start = Math.max(pos, base);
+			File keyFile = getKeyFile(keyName);
+			if (start < pos + length && SegmentedPad.isSegmented(keyFile)) {
+				SegmentedPad.open(keyFile).erase(eraser, start, pos + length - start, executor);
+			} else if (start < pos + length) {
+				RandomAccessFile key;
+				try {
+					key = new RandomAccessFile(keyDirectory + File.separator + keyName,
+							"rw");
+				} catch (FileNotFoundException e) {
+					throw new KeyException(e);
+				}
+				KeyData kd = new FileKeyData(key, base);
+				try {
+					eraser.erase(kd, start, pos + length - start);
+				} finally {
+					kd.close();
+				}
+			}
+			Tracing.end(trace, Tracing.KEY_ERASE, keyName, pos, length);
+			if (info != null) {
+				KeyInfo erased = info.withErased(pos, length);
+				if (erased != info) {
+					getIndex().put(keyName, erased);
+					writeErasedOffsets();
+					if (reclaimThreshold > 0
+							&& erased.getErasedOffset() - erased.getReclaimedOffset() >= reclaimThreshold) {
+						reclaim(keyName);
+					}
+				}
+			}
+		} finally {
+			lock.unlock();
 		}
+	}
 
+	/*
+	 * Drops the erased prefix of a key from disk by rewriting the key file to start at the erased
+	 * watermark, or for a segmented key by deleting the segments below it.  Returns the number of
+	 * bytes reclaimed.
+	 */
+	public int reclaim(String keyName) throws KeyException {
+		ReentrantLock lock = getPadLock(keyName);
+		lock.lock();
+		try {
+			KeyInfo info = getKeyInfo(keyName);
+			int base = info.getReclaimedOffset();
+			int target = Math.min(info.getErasedOffset(), info.getSize());
+			if (target <= base) {
+				return 0;
+			}
+			File keyFile = getKeyFile(keyName);
+			if (SegmentedPad.isSegmented(keyFile)) {
+				target = (int) SegmentedPad.open(keyFile).dropSegmentsBelow(target);
+				if (target <= base) {
+					return 0;
+				}
+				getIndex().put(keyName, info.withReclaimedOffset(target));
+				writeReclaimedOffsets();
+				return target - base;
+			}
+			File temp = getReclaimFile(keyName);
+			try {
+				FileUtils.copyFile(keyFile, temp, target - base);
+			} catch (IOException e) {
+				temp.delete();
+				throw new KeyException(e);
+			}
+			// the marker records the new base before the file is replaced, so init() can finish
+			// an interrupted reclaim rather than pair the shortened file with the old base
+			Properties marker = new Properties();
+			marker.setProperty(keyName, Integer.toString(target));
+			writePropertiesFile(marker, keyName + RECLAIM_MARKER_SUFFIX, "A pending key reclaim");
+			try {
+				// the dropped prefix has already been erased, so replacing the file is enough
+				replaceFile(temp, keyFile);
+			} catch (IOException e) {
+				throw new KeyException(e);
+			}
+			getIndex().put(keyName, info.withReclaimedOffset(target));
+			writeReclaimedOffsets();
+			FileUtils.deleteFile(getReclaimMarkerFile(keyName).getPath());
+			return target - base;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * Reclaims the erased prefix of every key, returning the total number of bytes reclaimed
+	 */
+	public long reclaimAll() throws KeyException {
+		long total = 0;
+		for (String name : listKeys()) {
+			total += reclaim(name);
+		}
+		return total;
 	}
 
 }
@@ -18,27 +18,33 @@
 
 package org.sector67.otp.key;
 
-import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.sector67.otp.utils.RandomUtils;
 
 /**
- * An in-memory implementation of an OTP keystore primarily for testing purposes
+ * An in-memory implementation of an OTP keystore primarily for testing purposes,
+ * every method is guarded by a single store-wide lock
  * 
  * @author scott.hasse@gmail.com
  */
 public class InMemoryKeyStore implements TestableKeyStore {
 
 	private Map<String, Integer> offsets = new HashMap<String, Integer>();
-	private Map<String, byte[]> keys = new HashMap<String, byte[]>();
-	Random r = new SecureRandom();
+	private Map<String, Integer> erasedOffsets = new HashMap<String, Integer>();
+	private Map<String, byte[]> keys = new TreeMap<String, byte[]>();
+	private Map<String, RangeSet> decrypted = new HashMap<String, RangeSet>();
+	private boolean replayDetection = true;
 	private KeyEraser eraser = new MultiPassSecureRandomEraser();
+	private final ReentrantLock lock = new ReentrantLock();
 
 	@Override
 	public void init() {
@@ -47,7 +53,24 @@ public class InMemoryKeyStore implements TestableKeyStore {
 
 	@Override
 	public void setKeyEraser(KeyEraser eraser) {
-		this.eraser = eraser;
+		lock.lock();
+		try {
+			this.eraser = eraser;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * Turns refusal of key ranges that were already used for decryption on or off
+	 */
+	public void setReplayDetection(boolean replayDetection) {
+		lock.lock();
+		try {
+			this.replayDetection = replayDetection;
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	public void generateKey(String name, int length) {
@@ -55,14 +78,19 @@ public class InMemoryKeyStore implements TestableKeyStore {
 			throw new IllegalArgumentException(
 					"You cannot create a null key name.");
 		}
-		if (keys.containsKey(name)) {
-			throw new IllegalArgumentException(
-					"You cannot create a key that already exists: " + name);
-		}
-		offsets.put(name, new Integer(0));
 		byte[] key = new byte[length];
-		r.nextBytes(key);
-		keys.put(name, key);
+		RandomUtils.current().nextBytes(key);
+		lock.lock();
+		try {
+			if (keys.containsKey(name)) {
+				throw new IllegalArgumentException(
+						"You cannot create a key that already exists: " + name);
+			}
+			offsets.put(name, new Integer(0));
+			keys.put(name, key);
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/*
@@ -73,12 +101,17 @@ public class InMemoryKeyStore implements TestableKeyStore {
 			throw new IllegalArgumentException(
 					"You cannot create a null key name.");
 		}
-		if (keys.containsKey(name)) {
-			throw new IllegalArgumentException(
-					"You cannot create a key that already exists: " + name);
+		lock.lock();
+		try {
+			if (keys.containsKey(name)) {
+				throw new IllegalArgumentException(
+						"You cannot create a key that already exists: " + name);
+			}
+			offsets.put(name, new Integer(offset));
+			keys.put(name, Arrays.copyOf(key, key.length));
+		} finally {
+			lock.unlock();
 		}
-		offsets.put(name, new Integer(offset));
-		keys.put(name, Arrays.copyOf(key, key.length));
 	}
 
 	/*
@@ -90,36 +123,108 @@ public class InMemoryKeyStore implements TestableKeyStore {
 		if (name == null) {
 			throw new KeyException("You cannot use a null key name.");
 		}
-		if (!keys.containsKey(name)) {
-			throw new KeyException(
-					"The requested key does not exist in this key store: "
-							+ name);
+		lock.lock();
+		try {
+			if (!keys.containsKey(name)) {
+				throw new KeyException(
+						"The requested key does not exist in this key store: "
+								+ name);
+			}
+			byte[] key = keys.get(name);
+			int currentOffset = offsets.get(name);
+			if (key.length < currentOffset + length) {
+				throw new KeyException(
+						"The key is not long enough to provide the requested bytes");
+			}
+			byte[] result = new byte[length];
+			for (int i = 0; i < length; i++) {
+				result[i] = key[currentOffset + i];
+			}
+			// update the offset
+			offsets.put(name, currentOffset + length);
+			return result;
+		} finally {
+			lock.unlock();
 		}
-		byte[] key = keys.get(name);
-		int currentOffset = offsets.get(name);
-		if (key.length < currentOffset + length) {
-			throw new KeyException(
-					"The key is not long enough to provide the requested bytes");
+	}
+
+	@Override
+	public KeyReservation reserve(String name, int length)
+			throws KeyException {
+		byte[] key;
+		int offset;
+		lock.lock();
+		try {
+			key = getKeyBytesForEncryption(name, length);
+			offset = offsets.get(name) - length;
+		} finally {
+			lock.unlock();
 		}
-		byte[] result = new byte[length];
-		for (int i = 0; i < length; i++) {
-			result[i] = key[currentOffset + i];
+		return new KeyReservation(name, offset, toBuffer(key));
+	}
+
+	@Override
+	public KeyBuffer getKeyBufferForEncryption(String name, int length)
+			throws KeyException {
+		return toBuffer(getKeyBytesForEncryption(name, length));
+	}
+
+	@Override
+	public KeyBuffer getKeyBufferForDecryption(String name, int offset, int length)
+			throws KeyException {
+		return toBuffer(getKeyBytesForDecryption(name, offset, length));
+	}
+
+	@Override
+	public KeyBuffer readKeyBufferForDecryption(String name, int offset, int length)
+			throws KeyException {
+		byte[] key;
+		lock.lock();
+		try {
+			key = readKeyBytes(name, offset, length);
+		} finally {
+			lock.unlock();
 		}
-		// update the offset
-		offsets.put(name, currentOffset + length);
-		return result;
+		return toBuffer(key);
+	}
+
+	/*
+	 * Copies key bytes into a pooled buffer and wipes the original, this store is for testing so
+	 * the extra copy does not matter
+	 */
+	private KeyBuffer toBuffer(byte[] key) {
+		KeyBuffer buffer = KeyBufferPool.getDefault().lease(key.length);
+		System.arraycopy(key, 0, buffer.array(), 0, key.length);
+		Arrays.fill(key, (byte) 0);
+		return buffer;
 	}
 
+	/*
+	 * Returns a snapshot of the key names, later changes to the store are not reflected in it
+	 */
 	public Set<String> getKeyNames() {
-		return keys.keySet();
+		lock.lock();
+		try {
+			return new TreeSet<String>(keys.keySet());
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	public void copyKey(String source, String destination) {
-		byte[] key = keys.get(source);
-		byte[] copy = Arrays.copyOf(key, key.length);
-		int offset = offsets.get(source);
-		offsets.put(destination, offset);
-		keys.put(destination, copy);
+		lock.lock();
+		try {
+			byte[] key = keys.get(source);
+			byte[] copy = Arrays.copyOf(key, key.length);
+			int offset = offsets.get(source);
+			offsets.put(destination, offset);
+			if (erasedOffsets.containsKey(source)) {
+				erasedOffsets.put(destination, erasedOffsets.get(source));
+			}
+			keys.put(destination, copy);
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	public class InMemoryKeyData implements KeyData {
@@ -144,7 +249,7 @@ public class InMemoryKeyStore implements TestableKeyStore {
 			// System.out.println("data length: " + data.length + " position: "
 			// + position);
 			for (int i = 0; i < data.length; i++) {
-				key[position + i] = data[position];
+				key[position + i] = data[i];
 			}
 		}
 
@@ -156,36 +261,117 @@ public class InMemoryKeyStore implements TestableKeyStore {
 
 	@Override
 	public List<String> listKeys() {
-		List<String> result = new ArrayList<String>();
-		result.addAll(keys.keySet());
-		Collections.sort(result);
-		return result;
+		lock.lock();
+		try {
+			// the keys are kept sorted by name
+			return new ArrayList<String>(keys.keySet());
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	@Override
 	public void deleteKey(String name) {
-		if (offsets.containsKey(name)) {
-			offsets.remove(name);
-		}
-		if (keys.containsKey(name)) {
-			keys.remove(name);
+		lock.lock();
+		try {
+			if (offsets.containsKey(name)) {
+				offsets.remove(name);
+			}
+			erasedOffsets.remove(name);
+			decrypted.remove(name);
+			if (keys.containsKey(name)) {
+				keys.remove(name);
+			}
+		} finally {
+			lock.unlock();
 		}
-
 	}
 
 	@Override
 	public int getCurrentOffset(String keyName) throws KeyException {
-		return offsets.get(keyName);
+		lock.lock();
+		try {
+			return offsets.get(keyName);
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	@Override
 	public int getSize(String keyName) throws KeyException {
-		throw new UnsupportedOperationException("Not Yet Implemented");
+		return getKeyInfo(keyName).getSize();
+	}
+
+	@Override
+	public KeyInfo getKeyInfo(String keyName) throws KeyException {
+		lock.lock();
+		try {
+			byte[] key = keys.get(keyName);
+			if (key == null) {
+				throw new KeyException("The key does not exist: [" + keyName + "]");
+			}
+			Integer erased = erasedOffsets.get(keyName);
+			return new KeyInfo(keyName, key.length, offsets.get(keyName), (erased == null) ? 0 : erased);
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	@Override
 	public byte[] getKeyBytesForDecryption(String name, int offset, int length)
 			throws KeyException {
+		lock.lock();
+		try {
+			// read and mark under one hold so two callers cannot both pass the replay check
+			byte[] result = readKeyBytes(name, offset, length);
+			try {
+				markDecrypted(name, offset, length);
+			} catch (KeyException e) {
+				Arrays.fill(result, (byte) 0);
+				throw e;
+			}
+			return result;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void markDecrypted(String name, int offset, int length) throws KeyException {
+		lock.lock();
+		try {
+			if (!replayDetection) {
+				return;
+			}
+			checkNotDecrypted(name, offset, length);
+			RangeSet used = decrypted.get(name);
+			if (used == null) {
+				used = new RangeSet();
+				decrypted.put(name, used);
+			}
+			used.add(offset, length);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * Callers must hold the store lock
+	 */
+	private void checkNotDecrypted(String name, int offset, int length) throws KeyException {
+		RangeSet used = decrypted.get(name);
+		if (replayDetection && used != null && used.intersects(offset, length)) {
+			throw new KeyException("The requested bytes of key [" + name
+					+ "] overlap bytes that were already used for decryption");
+		}
+	}
+
+	/*
+	 * Reads key bytes for decryption, refusing used ranges without marking this one used,
+	 * callers must hold the store lock
+	 */
+	private byte[] readKeyBytes(String name, int offset, int length)
+			throws KeyException {
 		if (name == null) {
 			throw new KeyException("You cannot use a null key name.");
 		}
@@ -200,6 +386,7 @@ public class InMemoryKeyStore implements TestableKeyStore {
 			throw new KeyException(
 					"The key is not long enough to provide the requested bytes");
 		}
+		checkNotDecrypted(name, offset, length);
 		byte[] result = new byte[length];
 		for (int i = 0; i < length; i++) {
 			result[i] = key[currentOffset + i];
@@ -213,20 +400,28 @@ public class InMemoryKeyStore implements TestableKeyStore {
 		if (name == null) {
 			throw new KeyException("You cannot use a null key name.");
 		}
-		if (!keys.containsKey(name)) {
-			throw new KeyException(
-					"The requested key does not exist in this key store: "
-							+ name);
-		}
-		byte[] key = keys.get(name);
-		int currentOffset = offset;
-		if (key.length < currentOffset + length) {
-			throw new KeyException(
-					"The key is not long enough to provide the requested bytes");
+		lock.lock();
+		try {
+			if (!keys.containsKey(name)) {
+				throw new KeyException(
+						"The requested key does not exist in this key store: "
+								+ name);
+			}
+			byte[] key = keys.get(name);
+			int currentOffset = offset;
+			if (key.length < currentOffset + length) {
+				throw new KeyException(
+						"The key is not long enough to provide the requested bytes");
+			}
+			InMemoryKeyData kd = new InMemoryKeyData(key);
+			eraser.erase(kd, offset, length);
+			keys.put(name, kd.getBytes());
+			int erased = getKeyInfo(name).withErased(offset, length).getErasedOffset();
+			if (erased > 0) {
+				erasedOffsets.put(name, erased);
+			}
+		} finally {
+			lock.unlock();
 		}
-		InMemoryKeyData kd = new InMemoryKeyData(key);
-		eraser.erase(kd, offset, length);
-		keys.put(name, kd.getBytes());
-
 	}
 }
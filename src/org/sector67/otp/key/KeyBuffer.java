@@ -0,0 +1,78 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.key;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Key material leased from a KeyBufferPool.  The key bytes are array()[0, getLength()); the array
+ * may be longer.  release() (or close(), for try-with-resources) zeroes the key bytes and hands
+ * the array back to the pool, so key material does not linger on the heap waiting for garbage
+ * collection.  A buffer must not be used after it has been released.
+ * 
+ * @author scott.hasse@gmail.com
+ */
+public class KeyBuffer implements Closeable {
+
+	private byte[] array;
+	private int length;
+	private KeyBufferPool pool;
+	private AtomicBoolean released = new AtomicBoolean();
+
+	KeyBuffer(byte[] array, int length, KeyBufferPool pool) {
+		this.array = array;
+		this.length = length;
+		this.pool = pool;
+	}
+
+	public byte[] array() {
+		if (released.get()) {
+			throw new IllegalStateException("The key buffer has already been released");
+		}
+		return array;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	/*
+	 * Returns a copy of the key bytes, which the caller is then responsible for wiping
+	 */
+	public byte[] toByteArray() {
+		return Arrays.copyOf(array(), length);
+	}
+
+	/*
+	 * Zeroes the key bytes and returns the array to the pool, later calls do nothing
+	 */
+	public void release() {
+		if (released.compareAndSet(false, true)) {
+			Arrays.fill(array, 0, length, (byte) 0);
+			pool.giveBack(array);
+		}
+	}
+
+	@Override
+	public void close() {
+		release();
+	}
+}
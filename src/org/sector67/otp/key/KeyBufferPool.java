@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.key;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of heap arrays for key material, in power of two size classes from 64 bytes up to a
+ * maximum.  Arrays are always zeroed before they come back to the pool, see KeyBuffer.release().
+ * Requests larger than the maximum get an unpooled array, which is still zeroed on release.
+ * Each size class keeps at most a fixed number of idle arrays.
+ * 
+ * @author scott.hasse@gmail.com
+ */
+public class KeyBufferPool {
+
+	private static final int MIN_SHIFT = 6;
+	private static final KeyBufferPool DEFAULT = new KeyBufferPool(64 * 1024, 64);
+
+	private int maxPooledLength;
+	private int maxIdle;
+	private List<ConcurrentLinkedQueue<byte[]>> classes = new ArrayList<ConcurrentLinkedQueue<byte[]>>();
+	private List<AtomicInteger> idle = new ArrayList<AtomicInteger>();
+
+	/*
+	 * Creates a pool for arrays up to maxPooledLength bytes (rounded up to a power of two),
+	 * keeping at most maxIdle idle arrays of each size
+	 */
+	public KeyBufferPool(int maxPooledLength, int maxIdle) {
+		this.maxPooledLength = Math.max(1 << MIN_SHIFT, Integer.highestOneBit(maxPooledLength - 1) << 1);
+		this.maxIdle = maxIdle;
+		for (int size = 1 << MIN_SHIFT; size <= this.maxPooledLength; size <<= 1) {
+			classes.add(new ConcurrentLinkedQueue<byte[]>());
+			idle.add(new AtomicInteger());
+		}
+	}
+
+	/*
+	 * The pool used by the key stores unless they are given another
+	 */
+	public static KeyBufferPool getDefault() {
+		return DEFAULT;
+	}
+
+	/*
+	 * Leases a zeroed buffer of at least length bytes
+	 */
+	public KeyBuffer lease(int length) {
+		if (length < 0) {
+			throw new IllegalArgumentException("The key buffer length cannot be negative");
+		}
+		if (length > maxPooledLength) {
+			return new KeyBuffer(new byte[length], length, this);
+		}
+		int index = getClassIndex(length);
+		byte[] array = classes.get(index).poll();
+		if (array == null) {
+			array = new byte[1 << (index + MIN_SHIFT)];
+		} else {
+			idle.get(index).decrementAndGet();
+		}
+		return new KeyBuffer(array, length, this);
+	}
+
+	/*
+	 * Takes back an array that has already been zeroed
+	 */
+	void giveBack(byte[] array) {
+		int size = array.length;
+		if (size > maxPooledLength || size < (1 << MIN_SHIFT) || Integer.bitCount(size) != 1) {
+			return;
+		}
+		int index = getClassIndex(size);
+		if (idle.get(index).incrementAndGet() > maxIdle) {
+			idle.get(index).decrementAndGet();
+			return;
+		}
+		classes.get(index).offer(array);
+	}
+
+	/*
+	 * The number of idle arrays held, for monitoring
+	 */
+	public int getIdleCount() {
+		int total = 0;
+		for (AtomicInteger count : idle) {
+			total += count.get();
+		}
+		return total;
+	}
+
+	private int getClassIndex(int length) {
+		if (length <= (1 << MIN_SHIFT)) {
+			return 0;
+		}
+		return 32 - Integer.numberOfLeadingZeros(length - 1) - MIN_SHIFT;
+	}
+}
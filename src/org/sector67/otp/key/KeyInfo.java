@@ -0,0 +1,111 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.key;
+
+/**
+ * An immutable snapshot of the consumption state of a single key (pad): its total size, the
+ * offset of the next byte to be used for encryption, the erased watermark, below which every
+ * byte is known to have been erased, and the reclaimed offset, below which the key bytes are no
+ * longer stored at all.
+ * 
+ * @author scott.hasse@gmail.com
+ */
+public class KeyInfo {
+
+	private String name;
+	private int size;
+	private int currentOffset;
+	private int erasedOffset;
+	private int reclaimedOffset;
+
+	public KeyInfo(String name, int size, int currentOffset, int erasedOffset) {
+		this(name, size, currentOffset, erasedOffset, 0);
+	}
+
+	public KeyInfo(String name, int size, int currentOffset, int erasedOffset, int reclaimedOffset) {
+		this.name = name;
+		this.size = size;
+		this.currentOffset = currentOffset;
+		this.erasedOffset = erasedOffset;
+		this.reclaimedOffset = reclaimedOffset;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public int getCurrentOffset() {
+		return currentOffset;
+	}
+
+	public int getErasedOffset() {
+		return erasedOffset;
+	}
+
+	public int getReclaimedOffset() {
+		return reclaimedOffset;
+	}
+
+	/*
+	 * The number of bytes still available for encryption
+	 */
+	public int getRemaining() {
+		return Math.max(0, size - currentOffset);
+	}
+
+	/*
+	 * The number of key bytes still stored, which is the size less the reclaimed prefix
+	 */
+	public int getStoredSize() {
+		return size - reclaimedOffset;
+	}
+
+	public KeyInfo withCurrentOffset(int currentOffset) {
+		return new KeyInfo(name, size, currentOffset, erasedOffset, reclaimedOffset);
+	}
+
+	public KeyInfo withErasedOffset(int erasedOffset) {
+		return new KeyInfo(name, size, currentOffset, erasedOffset, reclaimedOffset);
+	}
+
+	public KeyInfo withReclaimedOffset(int reclaimedOffset) {
+		return new KeyInfo(name, size, currentOffset, erasedOffset, reclaimedOffset);
+	}
+
+	/*
+	 * Returns the state after erasing length bytes at offset.  The watermark only advances when
+	 * the erased range touches it, erasures further into the key are not tracked.
+	 */
+	public KeyInfo withErased(int offset, int length) {
+		if (offset <= erasedOffset && offset + length > erasedOffset) {
+			return withErasedOffset(offset + length);
+		}
+		return this;
+	}
+
+	@Override
+	public String toString() {
+		return "KeyInfo [name=" + name + ", size=" + size + ", currentOffset=" + currentOffset
+				+ ", erasedOffset=" + erasedOffset + ", reclaimedOffset=" + reclaimedOffset + "]";
+	}
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.key;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A facade over a KeyStore that picks which key (pad) to encrypt with, so callers do not have to
+ * name one.  Reservations are spread round robin over the keys with enough bytes remaining, and
+ * a key that is busy with another reservation is skipped in favour of an idle one.  When a key
+ * runs low the pool simply moves on to the others, and the KeyPoolListener is told once per key
+ * when it drops below the low watermark, before it is exhausted.
+ * 
+ * @author scott.hasse@gmail.com
+ */
+public class KeyPool {
+
+	private KeyStore store;
+	private List<String> keyNames = new CopyOnWriteArrayList<String>();
+	private ConcurrentHashMap<String, ReentrantLock> locks = new ConcurrentHashMap<String, ReentrantLock>();
+	private Set<String> reportedLow = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private AtomicInteger next = new AtomicInteger();
+	private int lowWatermark = 4096;
+	private KeyPoolListener listener = null;
+
+	/*
+	 * Creates a pool of all of the keys currently in the store
+	 */
+	public KeyPool(KeyStore store) throws KeyException {
+		this(store, store.listKeys());
+	}
+
+	public KeyPool(KeyStore store, List<String> keyNames) {
+		this.store = store;
+		this.keyNames.addAll(keyNames);
+	}
+
+	public void addKey(String keyName) {
+		if (!keyNames.contains(keyName)) {
+			keyNames.add(keyName);
+		}
+	}
+
+	public void removeKey(String keyName) {
+		keyNames.remove(keyName);
+		reportedLow.remove(keyName);
+	}
+
+	public List<String> getKeyNames() {
+		return new ArrayList<String>(keyNames);
+	}
+
+	/*
+	 * Sets the number of remaining bytes below which a key is reported as low
+	 */
+	public void setLowWatermark(int lowWatermark) {
+		this.lowWatermark = lowWatermark;
+	}
+
+	public void setListener(KeyPoolListener listener) {
+		this.listener = listener;
+	}
+
+	/*
+	 * The total number of bytes still available for encryption across the pool
+	 */
+	public long getRemaining() throws KeyException {
+		long total = 0;
+		for (String name : keyNames) {
+			total += store.getKeyInfo(name).getRemaining();
+		}
+		return total;
+	}
+
+	/*
+	 * Returns the keys whose remaining bytes are below the low watermark
+	 */
+	public List<KeyInfo> getLowKeys() throws KeyException {
+		List<KeyInfo> result = new ArrayList<KeyInfo>();
+		for (String name : keyNames) {
+			KeyInfo info = store.getKeyInfo(name);
+			if (info.getRemaining() < lowWatermark) {
+				result.add(info);
+			}
+		}
+		return result;
+	}
+
+	/*
+	 * Reserves length bytes from a key with enough bytes remaining, the caller must release the
+	 * reservation
+	 */
+	public KeyReservation reserve(int length) throws KeyException {
+		List<String> names = new ArrayList<String>(keyNames);
+		int count = names.size();
+		int start = (count == 0) ? 0 : (next.getAndIncrement() & Integer.MAX_VALUE) % count;
+		String fallback = null;
+		// first pass, only take keys nobody else is reserving from
+		for (int i = 0; i < count; i++) {
+			String name = names.get((start + i) % count);
+			if (store.getKeyInfo(name).getRemaining() < length) {
+				continue;
+			}
+			if (fallback == null) {
+				fallback = name;
+			}
+			ReentrantLock lock = getLock(name);
+			if (lock.tryLock()) {
+				try {
+					KeyReservation reservation = reserveFrom(name, length);
+					if (reservation != null) {
+						return reservation;
+					}
+				} finally {
+					lock.unlock();
+				}
+			}
+		}
+		// every candidate was busy, wait for one, and keep rolling over if it ran out meanwhile
+		if (fallback != null) {
+			int first = names.indexOf(fallback);
+			for (int i = 0; i < count; i++) {
+				String name = names.get((first + i) % count);
+				ReentrantLock lock = getLock(name);
+				lock.lock();
+				try {
+					KeyReservation reservation = reserveFrom(name, length);
+					if (reservation != null) {
+						return reservation;
+					}
+				} finally {
+					lock.unlock();
+				}
+			}
+		}
+		if (listener != null) {
+			listener.poolExhausted(length);
+		}
+		throw new KeyException("No key in the pool has " + length + " bytes remaining");
+	}
+
+	/*
+	 * Reserves from a single key, returning null if it does not have enough bytes left.  Must
+	 * be called holding the key's lock.  The lock only steers callers to idle keys, the store
+	 * itself keeps the offsets right.
+	 */
+	private KeyReservation reserveFrom(String name, int length) throws KeyException {
+		KeyInfo info = store.getKeyInfo(name);
+		if (info.getRemaining() < length) {
+			return null;
+		}
+		KeyReservation reservation = store.reserve(name, length);
+		KeyInfo after = info.withCurrentOffset(reservation.getOffset() + length);
+		if (after.getRemaining() < lowWatermark && reportedLow.add(name) && listener != null) {
+			try {
+				listener.keyLow(after);
+			} catch (RuntimeException e) {
+				reservation.release();
+				throw e;
+			}
+		}
+		return reservation;
+	}
+
+	private ReentrantLock getLock(String name) {
+		ReentrantLock lock = locks.get(name);
+		if (lock == null) {
+			ReentrantLock created = new ReentrantLock();
+			lock = locks.putIfAbsent(name, created);
+			if (lock == null) {
+				lock = created;
+			}
+		}
+		return lock;
+	}
+}
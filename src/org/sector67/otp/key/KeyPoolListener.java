@@ -0,0 +1,38 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.key;
+
+/**
+ * Receives notifications about the keys in a KeyPool running low.
+ * 
+ * @author scott.hasse@gmail.com
+ */
+public interface KeyPoolListener {
+	/**
+	 * Called once when the remaining bytes of a key first drop below the pool's low watermark
+	 * @param info the state of the key after the reservation that crossed the watermark
+	 */
+	public void keyLow(KeyInfo info);
+
+	/**
+	 * Called when a reservation could not be satisfied by any key in the pool
+	 * @param length the number of bytes requested
+	 */
+	public void poolExhausted(int length);
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.key;
+
+import java.io.Closeable;
+
+/**
+ * Key bytes reserved for encrypting one message, along with the key name and offset the
+ * receiving side needs to find the same bytes for decryption.  The bytes are held in a pooled
+ * KeyBuffer, so the reservation must be released (or closed) once the message is encrypted,
+ * which zeroes them.
+ * 
+ * @author scott.hasse@gmail.com
+ */
+public class KeyReservation implements Closeable {
+
+	private String keyName;
+	private int offset;
+	private KeyBuffer key;
+
+	public KeyReservation(String keyName, int offset, KeyBuffer key) {
+		this.keyName = keyName;
+		this.offset = offset;
+		this.key = key;
+	}
+
+	public String getKeyName() {
+		return keyName;
+	}
+
+	public int getOffset() {
+		return offset;
+	}
+
+	public KeyBuffer getKeyBuffer() {
+		return key;
+	}
+
+	public int getLength() {
+		return key.getLength();
+	}
+
+	/*
+	 * Zeroes the key bytes and returns them to their pool
+	 */
+	public void release() {
+		key.release();
+	}
+
+	@Override
+	public void close() {
+		release();
+	}
+}
@@ -34,6 +34,18 @@ public interface KeyStore {
 	 * @throws KeyException
 	 */
 	public byte[] getKeyBytesForEncryption(String keyName, int length) throws KeyException;
+
+	/**
+	 * Reserves the next length bytes of a key for encryption, returning them with the offset they
+	 * start at.  The offset is taken in the same step as the bytes, so it is correct however many
+	 * threads or facades share the store.  The caller must release the reservation, which zeroes
+	 * the key bytes.
+	 * @param keyName
+	 * @param length
+	 * @return
+	 * @throws KeyException
+	 */
+	public KeyReservation reserve(String keyName, int length) throws KeyException;
 	public void setKeyEraser(KeyEraser eraser);
 	public void deleteKey(String name) throws KeyException;
 	public List<String> listKeys() throws KeyException;
@@ -45,6 +57,14 @@ public interface KeyStore {
 	public int getCurrentOffset(String keyName) throws KeyException;
 	public int getSize(String keyName) throws KeyException;
 	
+	/**
+	 * This method returns the size, current offset, remaining bytes and erased watermark of a key
+	 * @param keyName
+	 * @return
+	 * @throws KeyException
+	 */
+	public KeyInfo getKeyInfo(String keyName) throws KeyException;
+	
 	/**
 	 * This method is used when obtaining key bytes for decryption
 	 * @param name
@@ -53,4 +73,46 @@ public interface KeyStore {
 	 * @return
 	 */
 	public byte[] getKeyBytesForDecryption(String name, int offset, int length) throws KeyException;
+
+	/**
+	 * As getKeyBytesForEncryption, but returns the key bytes in a pooled buffer that the caller
+	 * must release, which zeroes them
+	 * @param keyName
+	 * @param length
+	 * @return
+	 * @throws KeyException
+	 */
+	public KeyBuffer getKeyBufferForEncryption(String keyName, int length) throws KeyException;
+
+	/**
+	 * As getKeyBytesForDecryption, but returns the key bytes in a pooled buffer that the caller
+	 * must release, which zeroes them
+	 * @param name
+	 * @param offset
+	 * @param length
+	 * @return
+	 * @throws KeyException
+	 */
+	public KeyBuffer getKeyBufferForDecryption(String name, int offset, int length) throws KeyException;
+
+	/**
+	 * As getKeyBufferForDecryption, but only checks that the range has not been used for
+	 * decryption without marking it used.  Callers that verify a message before trusting it call
+	 * markDecrypted once it has verified, so a forged message cannot use up the range.
+	 * @param name
+	 * @param offset
+	 * @param length
+	 * @return
+	 * @throws KeyException
+	 */
+	public KeyBuffer readKeyBufferForDecryption(String name, int offset, int length) throws KeyException;
+
+	/**
+	 * Marks a range of a key as used for decryption, failing if any of it already was
+	 * @param name
+	 * @param offset
+	 * @param length
+	 * @throws KeyException
+	 */
+	public void markDecrypted(String name, int offset, int length) throws KeyException;
 }
\ No newline at end of file
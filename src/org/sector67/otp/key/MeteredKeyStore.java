@@ -0,0 +1,194 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.key;
+
+import java.util.List;
+
+import org.sector67.otp.metrics.Metrics;
+
+/**
+ * A KeyStore decorator that reports reservation, read and erasure latencies and sizes, and the
+ * remaining bytes and erasure backlog of each key after it changes, to a Metrics implementation.
+ * 
+ * @author scott.hasse@gmail.com
+ */
+public class MeteredKeyStore implements KeyStore {
+
+	private KeyStore store;
+	private Metrics metrics;
+
+	public MeteredKeyStore(KeyStore store, Metrics metrics) {
+		this.store = store;
+		this.metrics = metrics;
+	}
+
+	public KeyStore getKeyStore() {
+		return store;
+	}
+
+	@Override
+	public byte[] getKeyBytesForEncryption(String keyName, int length) throws KeyException {
+		long start = System.nanoTime();
+		byte[] result = store.getKeyBytesForEncryption(keyName, length);
+		reportReserved(keyName, length, System.nanoTime() - start);
+		return result;
+	}
+
+	@Override
+	public KeyReservation reserve(String keyName, int length) throws KeyException {
+		long start = System.nanoTime();
+		KeyReservation result = store.reserve(keyName, length);
+		reportReserved(keyName, length, System.nanoTime() - start);
+		return result;
+	}
+
+	@Override
+	public byte[] getKeyBytesForDecryption(String name, int offset, int length) throws KeyException {
+		long start = System.nanoTime();
+		byte[] result = store.getKeyBytesForDecryption(name, offset, length);
+		reportRead(name, length, System.nanoTime() - start);
+		return result;
+	}
+
+	@Override
+	public KeyBuffer getKeyBufferForEncryption(String keyName, int length) throws KeyException {
+		long start = System.nanoTime();
+		KeyBuffer result = store.getKeyBufferForEncryption(keyName, length);
+		reportReserved(keyName, length, System.nanoTime() - start);
+		return result;
+	}
+
+	@Override
+	public KeyBuffer getKeyBufferForDecryption(String name, int offset, int length) throws KeyException {
+		long start = System.nanoTime();
+		KeyBuffer result = store.getKeyBufferForDecryption(name, offset, length);
+		reportRead(name, length, System.nanoTime() - start);
+		return result;
+	}
+
+	@Override
+	public KeyBuffer readKeyBufferForDecryption(String name, int offset, int length) throws KeyException {
+		long start = System.nanoTime();
+		KeyBuffer result = store.readKeyBufferForDecryption(name, offset, length);
+		reportRead(name, length, System.nanoTime() - start);
+		return result;
+	}
+
+	@Override
+	public void markDecrypted(String name, int offset, int length) throws KeyException {
+		store.markDecrypted(name, offset, length);
+	}
+
+	@Override
+	public void eraseKeyBytes(String name, int offset, int length) throws KeyException {
+		long start = System.nanoTime();
+		store.eraseKeyBytes(name, offset, length);
+		metrics.keyErased(name, length, System.nanoTime() - start);
+		reportState(name);
+	}
+
+	/*
+	 * Reports a reservation.  The key bytes are already consumed and in the caller's hands, so a
+	 * failing metrics sink must not turn the reservation into an error that loses them.
+	 */
+	private void reportReserved(String keyName, int length, long elapsed) {
+		try {
+			metrics.keyReserved(keyName, length, elapsed);
+			reportState(keyName);
+		} catch (KeyException | RuntimeException e) {
+			// metrics are best effort
+		}
+	}
+
+	/*
+	 * Reports a read, like reportReserved a failure here must not leak the key bytes just read
+	 */
+	private void reportRead(String name, int length, long elapsed) {
+		try {
+			metrics.keyRead(name, length, elapsed);
+		} catch (RuntimeException e) {
+			// metrics are best effort
+		}
+	}
+
+	/*
+	 * Reports the remaining bytes and erasure backlog of a key
+	 */
+	private void reportState(String keyName) throws KeyException {
+		KeyInfo info = store.getKeyInfo(keyName);
+		int used = Math.min(info.getCurrentOffset(), info.getSize());
+		metrics.keyState(keyName, info.getRemaining(), Math.max(0, used - info.getErasedOffset()));
+	}
+
+	@Override
+	public void setKeyEraser(KeyEraser eraser) {
+		store.setKeyEraser(eraser);
+	}
+
+	@Override
+	public void deleteKey(String name) throws KeyException {
+		store.deleteKey(name);
+	}
+
+	@Override
+	public List<String> listKeys() throws KeyException {
+		return store.listKeys();
+	}
+
+	@Override
+	public void init() throws KeyException {
+		store.init();
+		for (String name : store.listKeys()) {
+			reportState(name);
+		}
+	}
+
+	@Override
+	public void generateKey(String name, int length) throws KeyException {
+		store.generateKey(name, length);
+		reportState(name);
+	}
+
+	@Override
+	public void addKey(String name, byte[] key, int offset) throws KeyException {
+		store.addKey(name, key, offset);
+		reportState(name);
+	}
+
+	@Override
+	public void copyKey(String source, String destination) throws KeyException {
+		store.copyKey(source, destination);
+		reportState(destination);
+	}
+
+	@Override
+	public int getCurrentOffset(String keyName) throws KeyException {
+		return store.getCurrentOffset(keyName);
+	}
+
+	@Override
+	public int getSize(String keyName) throws KeyException {
+		return store.getSize(keyName);
+	}
+
+	@Override
+	public KeyInfo getKeyInfo(String keyName) throws KeyException {
+		return store.getKeyInfo(keyName);
+	}
+}
@@ -18,9 +18,10 @@
 
 package org.sector67.otp.key;
 
-import java.security.SecureRandom;
 import java.util.Random;
 
+import org.sector67.otp.utils.RandomUtils;
+
 /**
  * 
  * @author scott.hasse@gmail.com
@@ -29,10 +30,11 @@ import java.util.Random;
 public class MultiPassSecureRandomEraser implements KeyEraser {
 	
 	private int passes = 3;
-	Random r = new SecureRandom();
 
 	public void erase(KeyData d, int offset, int length) throws KeyException {
 		byte[] data = new byte[length];
+		// a per-thread source, so parallel erasures do not queue on one SecureRandom
+		Random r = RandomUtils.current();
 		for(int i = 0; i < passes; i++) {
 			r.nextBytes(data);
 			d.seek(offset);
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.key;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A set of non-overlapping integer ranges, used to remember which parts of a key have already
+ * been used for decryption.  Touching or overlapping ranges are coalesced as they are added, so
+ * messages received in order collapse into a single range and the set stays small no matter how
+ * many messages have been seen.  Overlap checks and additions are O(log n) in the number of
+ * disjoint ranges.
+ * 
+ * @author scott.hasse@gmail.com
+ */
+public class RangeSet {
+
+	// range start -> range end (exclusive)
+	private TreeMap<Integer, Integer> ranges = new TreeMap<Integer, Integer>();
+
+	/*
+	 * Returns true if any byte in [offset, offset + length) is already in the set
+	 */
+	public boolean intersects(int offset, int length) {
+		if (length <= 0) {
+			return false;
+		}
+		int end = offset + length;
+		Map.Entry<Integer, Integer> floor = ranges.floorEntry(offset);
+		if (floor != null && floor.getValue() > offset) {
+			return true;
+		}
+		Integer next = ranges.higherKey(offset);
+		return next != null && next < end;
+	}
+
+	/*
+	 * Adds [offset, offset + length) to the set, merging it with any ranges it touches
+	 */
+	public void add(int offset, int length) {
+		if (length <= 0) {
+			return;
+		}
+		int start = offset;
+		int end = offset + length;
+		Map.Entry<Integer, Integer> floor = ranges.floorEntry(start);
+		if (floor != null && floor.getValue() >= start) {
+			start = floor.getKey();
+			end = Math.max(end, floor.getValue());
+		}
+		Map.Entry<Integer, Integer> next = ranges.ceilingEntry(start);
+		while (next != null && next.getKey() <= end) {
+			end = Math.max(end, next.getValue());
+			ranges.remove(next.getKey());
+			next = ranges.ceilingEntry(start);
+		}
+		ranges.put(start, end);
+	}
+
+	/*
+	 * The number of disjoint ranges in the set
+	 */
+	public int getRangeCount() {
+		return ranges.size();
+	}
+
+	public boolean isEmpty() {
+		return ranges.isEmpty();
+	}
+
+	public void writeTo(DataOutputStream out) throws IOException {
+		out.writeInt(ranges.size());
+		for (Map.Entry<Integer, Integer> range : ranges.entrySet()) {
+			out.writeInt(range.getKey());
+			out.writeInt(range.getValue());
+		}
+	}
+
+	public static RangeSet readFrom(DataInputStream in) throws IOException {
+		RangeSet result = new RangeSet();
+		int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			int start = in.readInt();
+			int end = in.readInt();
+			result.add(start, end - start);
+		}
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("[");
+		for (Map.Entry<Integer, Integer> range : ranges.entrySet()) {
+			if (sb.length() > 1) {
+				sb.append(", ");
+			}
+			sb.append(range.getKey()).append('-').append(range.getValue());
+		}
+		return sb.append(']').toString();
+	}
+}
@@ -0,0 +1,404 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.key;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.sector67.otp.utils.FileUtils;
+import org.sector67.otp.utils.RandomUtils;
+
+/**
+ * A key (pad) stored as a directory of fixed-size segment files plus a manifest, used by
+ * FileKeyStore's segmented layout.  The segment holding any offset is found by a single division,
+ * whole segments below the erased watermark can be dropped, and generation, copy and erase work
+ * segment by segment, in parallel when an executor is supplied.
+ * 
+ * Offsets are 64-bit within the pad, although the KeyStore interface still addresses keys with
+ * int offsets.
+ * 
+ * @author scott.hasse@gmail.com
+ */
+class SegmentedPad {
+
+	static final String MANIFEST_FILE_NAME = "manifest.properties";
+	static final String MANIFEST_TEMP_FILE_NAME = "manifest.properties.tmp";
+
+	private File directory;
+	private int segmentSize;
+	private long size;
+	private long firstSegment;
+
+	private SegmentedPad(File directory, int segmentSize, long size, long firstSegment) {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.size = size;
+		this.firstSegment = firstSegment;
+	}
+
+	/*
+	 * True if the key at this path uses the segmented layout
+	 */
+	static boolean isSegmented(File path) {
+		return path.isDirectory();
+	}
+
+	/*
+	 * Creates the directory and manifest for a new pad, the segments still have to be written
+	 */
+	static SegmentedPad create(File directory, int segmentSize, long size) throws KeyException {
+		if (segmentSize <= 0) {
+			throw new IllegalArgumentException("The segment size must be positive");
+		}
+		if (directory.exists() || !directory.mkdirs()) {
+			throw new KeyException("The key directory could not be created: [" + directory + "]");
+		}
+		SegmentedPad pad = new SegmentedPad(directory, segmentSize, size, 0);
+		pad.writeManifest();
+		return pad;
+	}
+
+	static SegmentedPad open(File directory) throws KeyException {
+		Properties p = new Properties();
+		try (InputStream in = new FileInputStream(new File(directory, MANIFEST_FILE_NAME))) {
+			p.load(in);
+			return new SegmentedPad(directory, Integer.parseInt(p.getProperty("segmentSize")),
+					Long.parseLong(p.getProperty("size")),
+					Long.parseLong(p.getProperty("firstSegment", "0")));
+		} catch (IOException | NumberFormatException e) {
+			throw new KeyException(e);
+		}
+	}
+
+	/*
+	 * Writes the manifest to a temporary file and renames it over the old one, so a crash
+	 * never leaves a truncated manifest
+	 */
+	private void writeManifest() throws KeyException {
+		Properties p = new Properties();
+		p.setProperty("segmentSize", Integer.toString(segmentSize));
+		p.setProperty("size", Long.toString(size));
+		p.setProperty("firstSegment", Long.toString(firstSegment));
+		File temp = new File(directory, MANIFEST_TEMP_FILE_NAME);
+		try {
+			try (OutputStream out = new FileOutputStream(temp)) {
+				p.store(out, "A segmented key manifest");
+			}
+			Files.move(temp.toPath(), new File(directory, MANIFEST_FILE_NAME).toPath(),
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			temp.delete();
+			throw new KeyException(e);
+		}
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public int getSegmentSize() {
+		return segmentSize;
+	}
+
+	public long getSegmentCount() {
+		return (size + segmentSize - 1) / segmentSize;
+	}
+
+	/*
+	 * The offset of the first byte still stored, everything below it has been dropped
+	 */
+	public long getReclaimedOffset() {
+		return firstSegment * segmentSize;
+	}
+
+	private File getSegmentFile(long segment) {
+		return new File(directory, String.format("%010d", segment));
+	}
+
+	private int getSegmentLength(long segment) {
+		return (int) Math.min(segmentSize, size - segment * segmentSize);
+	}
+
+	/*
+	 * Reads dest.length bytes starting at offset, crossing segment boundaries as needed
+	 */
+	public void read(long offset, byte[] dest) throws KeyException {
+		read(offset, dest, dest.length);
+	}
+
+	/*
+	 * Reads length bytes starting at offset into the start of dest
+	 */
+	public void read(long offset, byte[] dest, int length) throws KeyException {
+		checkRange(offset, length);
+		int done = 0;
+		while (done < length) {
+			long position = offset + done;
+			long segment = position / segmentSize;
+			int within = (int) (position % segmentSize);
+			int n = Math.min(length - done, getSegmentLength(segment) - within);
+			try (RandomAccessFile file = new RandomAccessFile(getSegmentFile(segment), "r")) {
+				file.seek(within);
+				file.readFully(dest, done, n);
+			} catch (IOException e) {
+				throw new KeyException(e);
+			}
+			done += n;
+		}
+	}
+
+	/*
+	 * Overwrites length bytes starting at offset
+	 */
+	public void write(long offset, byte[] data, int off, int length) throws KeyException {
+		checkRange(offset, length);
+		int done = 0;
+		while (done < length) {
+			long position = offset + done;
+			long segment = position / segmentSize;
+			int within = (int) (position % segmentSize);
+			int n = Math.min(length - done, getSegmentLength(segment) - within);
+			try (RandomAccessFile file = new RandomAccessFile(getSegmentFile(segment), "rw")) {
+				file.seek(within);
+				file.write(data, off + done, n);
+			} catch (IOException e) {
+				throw new KeyException(e);
+			}
+			done += n;
+		}
+	}
+
+	private void checkRange(long offset, int length) throws KeyException {
+		if (offset < getReclaimedOffset()) {
+			throw new KeyException("The requested key bytes have been erased and reclaimed");
+		}
+		if (offset + length > size) {
+			throw new KeyException("The key is not long enough to provide the requested bytes");
+		}
+	}
+
+	/*
+	 * Writes every segment with random bytes
+	 */
+	public void fill(ExecutorService executor) throws KeyException {
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (long s = firstSegment; s < getSegmentCount(); s++) {
+			final long segment = s;
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					byte[] b = new byte[getSegmentLength(segment)];
+					RandomUtils.current().nextBytes(b);
+					writeSegment(segment, b, 0, b.length);
+					return null;
+				}
+			});
+		}
+		run(tasks, executor);
+	}
+
+	/*
+	 * Writes the whole key, which must be exactly the pad size
+	 */
+	public void fill(final byte[] key, ExecutorService executor) throws KeyException {
+		if (key.length != size) {
+			throw new IllegalArgumentException("The key length does not match the pad size");
+		}
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (long s = firstSegment; s < getSegmentCount(); s++) {
+			final long segment = s;
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					writeSegment(segment, key, (int) (segment * segmentSize), getSegmentLength(segment));
+					return null;
+				}
+			});
+		}
+		run(tasks, executor);
+	}
+
+	private void writeSegment(long segment, byte[] data, int offset, int length) throws KeyException {
+		try (OutputStream out = new FileOutputStream(getSegmentFile(segment))) {
+			out.write(data, offset, length);
+		} catch (IOException e) {
+			throw new KeyException(e);
+		}
+	}
+
+	/*
+	 * Copies the manifest and the segments holding offset and above into a new pad directory
+	 */
+	public SegmentedPad copyTo(File destination, long offset, ExecutorService executor) throws KeyException {
+		final SegmentedPad copy = create(destination, segmentSize, size);
+		copy.firstSegment = Math.max(firstSegment, Math.min(offset, size) / segmentSize);
+		copy.writeManifest();
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (long s = copy.firstSegment; s < getSegmentCount(); s++) {
+			final long segment = s;
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					FileUtils.copyFile(getSegmentFile(segment), copy.getSegmentFile(segment), 0);
+					return null;
+				}
+			});
+		}
+		run(tasks, executor);
+		return copy;
+	}
+
+	/*
+	 * Erases [offset, offset + length) with the eraser, one segment at a time
+	 */
+	public void erase(final KeyEraser eraser, long offset, int length, ExecutorService executor)
+			throws KeyException {
+		checkRange(offset, length);
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		long end = offset + length;
+		for (long position = offset; position < end;) {
+			long segment = position / segmentSize;
+			final int within = (int) (position % segmentSize);
+			final int n = (int) Math.min(end - position, getSegmentLength(segment) - within);
+			final File file = getSegmentFile(segment);
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					KeyData kd = new SegmentKeyData(new RandomAccessFile(file, "rw"));
+					try {
+						eraser.erase(kd, within, n);
+					} finally {
+						kd.close();
+					}
+					return null;
+				}
+			});
+			position += n;
+		}
+		run(tasks, executor);
+	}
+
+	/*
+	 * Deletes every segment lying entirely below offset, returning the new reclaimed offset
+	 */
+	public long dropSegmentsBelow(long offset) throws KeyException {
+		long last = Math.min(offset, size) / segmentSize;
+		if (last <= firstSegment) {
+			return getReclaimedOffset();
+		}
+		long previous = firstSegment;
+		// record the drop first, so a failure part way never leaves the manifest pointing at
+		// segments that are gone
+		firstSegment = last;
+		writeManifest();
+		for (long s = previous; s < last; s++) {
+			getSegmentFile(s).delete();
+		}
+		return getReclaimedOffset();
+	}
+
+	/*
+	 * Removes the segments, manifest and directory
+	 */
+	public void delete() {
+		for (long s = firstSegment; s < getSegmentCount(); s++) {
+			getSegmentFile(s).delete();
+		}
+		new File(directory, MANIFEST_FILE_NAME).delete();
+		new File(directory, MANIFEST_TEMP_FILE_NAME).delete();
+		directory.delete();
+	}
+
+	private static class SegmentKeyData implements KeyData {
+		private RandomAccessFile segment;
+
+		SegmentKeyData(RandomAccessFile segment) {
+			this.segment = segment;
+		}
+
+		public void seek(int position) throws KeyException {
+			try {
+				segment.seek(position);
+			} catch (IOException e) {
+				throw new KeyException(e);
+			}
+		}
+
+		public void write(byte[] data) throws KeyException {
+			try {
+				segment.write(data);
+			} catch (IOException e) {
+				throw new KeyException(e);
+			}
+		}
+
+		public void close() throws KeyException {
+			try {
+				segment.close();
+			} catch (IOException e) {
+				throw new KeyException(e);
+			}
+		}
+	}
+
+	private void run(List<Callable<Void>> tasks, ExecutorService executor) throws KeyException {
+		try {
+			if (executor == null) {
+				for (Callable<Void> task : tasks) {
+					task.call();
+				}
+				return;
+			}
+			List<Future<Void>> futures = executor.invokeAll(tasks);
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new KeyException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof KeyException) {
+				throw (KeyException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new KeyException(e);
+		} catch (KeyException | RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new KeyException(e);
+		}
+	}
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A Metrics implementation that keeps counters, gauges and latency histograms in memory, for
+ * polling by whatever exports them.  After the first event for a key, recording only updates
+ * atomics and does not allocate.
+ * 
+ * @author scott.hasse@gmail.com
+ */
+public class CountingMetrics implements Metrics {
+
+	private LatencyHistogram reservationLatency = new LatencyHistogram();
+	private LatencyHistogram readLatency = new LatencyHistogram();
+	private LatencyHistogram eraseLatency = new LatencyHistogram();
+	private LatencyHistogram persistLatency = new LatencyHistogram();
+	private ConcurrentHashMap<String, KeyStatistics> keys = new ConcurrentHashMap<String, KeyStatistics>();
+	// stands in for calls where the caller supplied the key bytes
+	private KeyStatistics unnamed = new KeyStatistics();
+
+	/**
+	 * The counters and gauges for a single key
+	 */
+	public static class KeyStatistics {
+		private AtomicLong reserved = new AtomicLong();
+		private AtomicLong read = new AtomicLong();
+		private AtomicLong erased = new AtomicLong();
+		private AtomicLong encrypted = new AtomicLong();
+		private AtomicLong decrypted = new AtomicLong();
+		private AtomicLong authenticationFailures = new AtomicLong();
+		private volatile int remaining = -1;
+		private volatile int erasureBacklog = 0;
+
+		public long getBytesReserved() {
+			return reserved.get();
+		}
+
+		public long getBytesRead() {
+			return read.get();
+		}
+
+		public long getBytesErased() {
+			return erased.get();
+		}
+
+		public long getBytesEncrypted() {
+			return encrypted.get();
+		}
+
+		public long getBytesDecrypted() {
+			return decrypted.get();
+		}
+
+		public long getAuthenticationFailures() {
+			return authenticationFailures.get();
+		}
+
+		/*
+		 * The last reported remaining bytes, or -1 if none was reported yet
+		 */
+		public int getRemaining() {
+			return remaining;
+		}
+
+		public int getErasureBacklog() {
+			return erasureBacklog;
+		}
+
+		@Override
+		public String toString() {
+			return "reserved=" + getBytesReserved() + ", read=" + getBytesRead() + ", erased="
+					+ getBytesErased() + ", encrypted=" + getBytesEncrypted() + ", decrypted="
+					+ getBytesDecrypted() + ", authenticationFailures=" + getAuthenticationFailures()
+					+ ", remaining=" + getRemaining() + ", erasureBacklog=" + getErasureBacklog();
+		}
+	}
+
+	private KeyStatistics get(String keyName) {
+		if (keyName == null) {
+			return unnamed;
+		}
+		KeyStatistics stats = keys.get(keyName);
+		if (stats == null) {
+			KeyStatistics created = new KeyStatistics();
+			stats = keys.putIfAbsent(keyName, created);
+			if (stats == null) {
+				stats = created;
+			}
+		}
+		return stats;
+	}
+
+	public void keyReserved(String keyName, int bytes, long nanos) {
+		get(keyName).reserved.addAndGet(bytes);
+		reservationLatency.record(nanos);
+	}
+
+	public void keyRead(String keyName, int bytes, long nanos) {
+		get(keyName).read.addAndGet(bytes);
+		readLatency.record(nanos);
+	}
+
+	public void keyErased(String keyName, int bytes, long nanos) {
+		get(keyName).erased.addAndGet(bytes);
+		eraseLatency.record(nanos);
+	}
+
+	public void offsetsPersisted(long nanos) {
+		persistLatency.record(nanos);
+	}
+
+	public void keyState(String keyName, int remaining, int erasureBacklog) {
+		KeyStatistics stats = get(keyName);
+		stats.remaining = remaining;
+		stats.erasureBacklog = erasureBacklog;
+	}
+
+	public void bytesEncrypted(String keyName, int bytes) {
+		get(keyName).encrypted.addAndGet(bytes);
+	}
+
+	public void bytesDecrypted(String keyName, int bytes) {
+		get(keyName).decrypted.addAndGet(bytes);
+	}
+
+	public void authenticationFailed(String keyName) {
+		get(keyName).authenticationFailures.incrementAndGet();
+	}
+
+	public LatencyHistogram getReservationLatency() {
+		return reservationLatency;
+	}
+
+	public LatencyHistogram getReadLatency() {
+		return readLatency;
+	}
+
+	public LatencyHistogram getEraseLatency() {
+		return eraseLatency;
+	}
+
+	public LatencyHistogram getPersistLatency() {
+		return persistLatency;
+	}
+
+	/*
+	 * Returns the statistics of every key seen so far
+	 */
+	public Map<String, KeyStatistics> getKeyStatistics() {
+		return Collections.unmodifiableMap(keys);
+	}
+
+	public KeyStatistics getKeyStatistics(String keyName) {
+		return keys.get(keyName);
+	}
+
+	/*
+	 * Returns the statistics of encryption and decryption done with caller supplied key bytes
+	 */
+	public KeyStatistics getUnnamedStatistics() {
+		return unnamed;
+	}
+
+	/*
+	 * The total erasure backlog over all keys, as last reported
+	 */
+	public long getTotalErasureBacklog() {
+		long total = 0;
+		for (KeyStatistics stats : keys.values()) {
+			total += stats.erasureBacklog;
+		}
+		return total;
+	}
+}
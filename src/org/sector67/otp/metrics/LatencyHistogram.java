@@ -0,0 +1,106 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram with power of two buckets: bucket i counts values v with
+ * 2^(i-1) <= v < 2^i, bucket 0 counts zero.  Recording only updates atomics, so it never
+ * allocates, at the cost of percentiles being accurate only to within a factor of two.
+ * 
+ * @author scott.hasse@gmail.com
+ */
+public class LatencyHistogram {
+
+	private static final int BUCKETS = 64;
+
+	private AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private AtomicLong count = new AtomicLong();
+	private AtomicLong sum = new AtomicLong();
+	private AtomicLong max = new AtomicLong();
+
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public double getMean() {
+		long c = count.get();
+		return (c == 0) ? 0 : (double) sum.get() / c;
+	}
+
+	/*
+	 * Returns the number of values in bucket i, see the class comment for the bucket bounds
+	 */
+	public long getBucketCount(int i) {
+		return buckets.get(i);
+	}
+
+	/*
+	 * Returns an upper bound for the given percentile (0-100), exact to within a factor of two
+	 */
+	public long getPercentile(double percentile) {
+		long c = count.get();
+		if (c == 0) {
+			return 0;
+		}
+		long target = (long) Math.ceil(c * percentile / 100.0);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += buckets.get(i);
+			if (seen >= target) {
+				return (i == 0) ? 0 : Math.min(max.get(), (1L << i) - 1);
+			}
+		}
+		return max.get();
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + getCount() + ", mean=" + (long) getMean() + ", p50=" + getPercentile(50)
+				+ ", p99=" + getPercentile(99) + ", max=" + getMax();
+	}
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.metrics;
+
+/**
+ * A pluggable sink for measurements from the key stores and the cipher.  Implementations are
+ * called on the encryption and decryption paths, from any thread, so they must be thread-safe and
+ * should not allocate or block.  Times are in nanoseconds.
+ * 
+ * @author scott.hasse@gmail.com
+ */
+public interface Metrics {
+	/**
+	 * Key bytes were reserved for encryption
+	 */
+	public void keyReserved(String keyName, int bytes, long nanos);
+
+	/**
+	 * Key bytes were read for decryption
+	 */
+	public void keyRead(String keyName, int bytes, long nanos);
+
+	/**
+	 * Key bytes were erased
+	 */
+	public void keyErased(String keyName, int bytes, long nanos);
+
+	/**
+	 * The key offsets were written to persistent storage
+	 */
+	public void offsetsPersisted(long nanos);
+
+	/**
+	 * The current state of a key
+	 * @param remaining bytes still available for encryption
+	 * @param erasureBacklog bytes used but not yet erased
+	 */
+	public void keyState(String keyName, int remaining, int erasureBacklog);
+
+	/**
+	 * Plain text was encrypted, keyName is null when the caller supplied the key bytes
+	 */
+	public void bytesEncrypted(String keyName, int bytes);
+
+	/**
+	 * Cipher text was decrypted, keyName is null when the caller supplied the key bytes
+	 */
+	public void bytesDecrypted(String keyName, int bytes);
+
+	/**
+	 * An authenticated message failed verification
+	 */
+	public void authenticationFailed(String keyName);
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.metrics;
+
+/**
+ * The default Metrics, which discards everything.
+ * 
+ * @author scott.hasse@gmail.com
+ */
+public class NoOpMetrics implements Metrics {
+
+	public static final NoOpMetrics INSTANCE = new NoOpMetrics();
+
+	public void keyReserved(String keyName, int bytes, long nanos) {
+	}
+
+	public void keyRead(String keyName, int bytes, long nanos) {
+	}
+
+	public void keyErased(String keyName, int bytes, long nanos) {
+	}
+
+	public void offsetsPersisted(long nanos) {
+	}
+
+	public void keyState(String keyName, int remaining, int erasureBacklog) {
+	}
+
+	public void bytesEncrypted(String keyName, int bytes) {
+	}
+
+	public void bytesDecrypted(String keyName, int bytes) {
+	}
+
+	public void authenticationFailed(String keyName) {
+	}
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.metrics;
+
+/**
+ * Receives timed trace events from the key stores and the error correcting decoder, see Tracing.
+ * Implementations are called from any thread and must be thread-safe.
+ * 
+ * @author scott.hasse@gmail.com
+ */
+public interface TraceListener {
+	/**
+	 * @param type one of the Tracing event type constants
+	 * @param keyName the key (pad) involved, or null if there is none
+	 * @param offset the key offset, or for block decoding the offset of the block in the input
+	 * @param length the number of bytes involved
+	 * @param startNanos the System.nanoTime() at which the operation started
+	 * @param durationNanos how long the operation took
+	 */
+	public void event(String type, String keyName, long offset, int length, long startNanos,
+			long durationNanos);
+}
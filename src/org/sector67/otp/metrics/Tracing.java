@@ -0,0 +1,81 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.metrics;
+
+/**
+ * A process-wide switch for trace events around key reservation, reads, erasure, generation,
+ * offset persistence and error correcting block decodes.  Tracing is off until a TraceListener is
+ * installed, and while it is off each instrumented call costs a clock read and a volatile read.
+ * A listener that throws is ignored, tracing never changes the outcome of the traced operation.
+ * 
+ * A listener can forward the events to a Java Flight Recorder custom event, a log or a tracing
+ * system; the library itself has no dependency on any of them.
+ * 
+ * @author scott.hasse@gmail.com
+ */
+public class Tracing {
+
+	public static final String KEY_RESERVE = "KeyReserve";
+	public static final String KEY_READ = "KeyRead";
+	public static final String KEY_ERASE = "KeyErase";
+	public static final String KEY_GENERATE = "KeyGenerate";
+	public static final String OFFSETS_READ = "OffsetsRead";
+	public static final String OFFSETS_WRITE = "OffsetsWrite";
+	public static final String BLOCK_DECODE = "BlockDecode";
+
+	private static volatile TraceListener listener = null;
+
+	private Tracing() {
+	}
+
+	/*
+	 * Installs the listener, or turns tracing off with null
+	 */
+	public static void setListener(TraceListener traceListener) {
+		listener = traceListener;
+	}
+
+	public static boolean isEnabled() {
+		return listener != null;
+	}
+
+	/*
+	 * Returns the System.nanoTime() to pass to end().  Any value, including 0 or a negative one,
+	 * is a valid start time.
+	 */
+	public static long start() {
+		return System.nanoTime();
+	}
+
+	/*
+	 * Reports an operation that began at start, if tracing is on.  Exceptions from the listener
+	 * are dropped, as the operation may already have consumed key bytes and must not fail or
+	 * have its own exception hidden.
+	 */
+	public static void end(long start, String type, String keyName, long offset, int length) {
+		TraceListener l = listener;
+		if (l != null) {
+			try {
+				l.event(type, keyName, offset, length, start, System.nanoTime() - start);
+			} catch (RuntimeException e) {
+				// tracing is best effort
+			}
+		}
+	}
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.pipeline;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A one-to-one processor: every item from upstream becomes exactly one item downstream.  Demand
+ * is passed straight through, so upstream is never asked for more items than downstream has
+ * requested, and nothing is queued in between.  Demand requested before upstream subscribes is
+ * held and forwarded once it does.  Only one downstream subscriber is supported.
+ * 
+ * process() and release() never run at the same time, so a cancel from another thread cannot
+ * wipe resources an item is still being processed with, and an item that finishes processing
+ * after the stream has ended is dropped rather than emitted.
+ * 
+ * @author scott.hasse@gmail.com
+ */
+public abstract class ChunkProcessor<T, R> implements Flow.Processor<T, R> {
+
+	private volatile Flow.Subscription upstream;
+	private AtomicReference<Flow.Subscriber<? super R>> downstream = new AtomicReference<Flow.Subscriber<? super R>>();
+	private AtomicLong pendingDemand = new AtomicLong();
+	private AtomicBoolean done = new AtomicBoolean();
+	private ReentrantLock processLock = new ReentrantLock();
+
+	/*
+	 * Transforms one item
+	 */
+	protected abstract R process(T item) throws Exception;
+
+	/*
+	 * Called once when the stream ends for any reason, to drop any resources held.  Never runs
+	 * while process() does.
+	 */
+	protected abstract void release();
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super R> subscriber) {
+		if (!downstream.compareAndSet(null, subscriber)) {
+			subscriber.onSubscribe(new Flow.Subscription() {
+				public void request(long n) {
+				}
+
+				public void cancel() {
+				}
+			});
+			subscriber.onError(new IllegalStateException("This processor already has a subscriber"));
+			return;
+		}
+		subscriber.onSubscribe(new Flow.Subscription() {
+			@Override
+			public void request(long n) {
+				if (n <= 0) {
+					fail(new IllegalArgumentException("The requested number of items must be positive"));
+					return;
+				}
+				Flow.Subscription s = upstream;
+				if (s != null) {
+					s.request(n);
+				} else {
+					addDemand(n);
+					// upstream may have arrived in the meantime
+					flushDemand();
+				}
+			}
+
+			@Override
+			public void cancel() {
+				Flow.Subscription s = upstream;
+				if (s != null) {
+					s.cancel();
+				}
+				finish();
+			}
+		});
+	}
+
+	@Override
+	public void onSubscribe(Flow.Subscription subscription) {
+		if (upstream != null) {
+			subscription.cancel();
+			return;
+		}
+		upstream = subscription;
+		flushDemand();
+	}
+
+	@Override
+	public void onNext(T item) {
+		if (done.get()) {
+			return;
+		}
+		R result;
+		processLock.lock();
+		try {
+			if (done.get()) {
+				return;
+			}
+			result = process(item);
+		} catch (Exception e) {
+			Flow.Subscription s = upstream;
+			if (s != null) {
+				s.cancel();
+			}
+			fail(e);
+			return;
+		} finally {
+			processLock.unlock();
+		}
+		// the stream may have been cancelled while the item was processed
+		if (done.get()) {
+			return;
+		}
+		downstream.get().onNext(result);
+	}
+
+	@Override
+	public void onError(Throwable throwable) {
+		fail(throwable);
+	}
+
+	@Override
+	public void onComplete() {
+		if (finish()) {
+			downstream.get().onComplete();
+		}
+	}
+
+	private void fail(Throwable throwable) {
+		if (finish()) {
+			downstream.get().onError(throwable);
+		}
+	}
+
+	/*
+	 * Marks the stream as done and releases resources once any item being processed is
+	 * finished, returning false if it already was done
+	 */
+	private boolean finish() {
+		if (done.compareAndSet(false, true)) {
+			processLock.lock();
+			try {
+				release();
+			} finally {
+				processLock.unlock();
+			}
+			return true;
+		}
+		return false;
+	}
+
+	private void addDemand(long n) {
+		long current;
+		do {
+			current = pendingDemand.get();
+		} while (!pendingDemand.compareAndSet(current, (current + n < 0) ? Long.MAX_VALUE : current + n));
+	}
+
+	private void flushDemand() {
+		Flow.Subscription s = upstream;
+		if (s != null) {
+			long n = pendingDemand.getAndSet(0);
+			if (n > 0) {
+				s.request(n);
+			}
+		}
+	}
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.pipeline;
+
+import java.nio.ByteBuffer;
+import org.sector67.otp.key.KeyBuffer;
+import org.sector67.otp.key.KeyStore;
+
+/**
+ * The inverse of EncryptingProcessor: decrypts EncryptedChunks with the key bytes at their tagged
+ * name and offset, emitting the plain text chunks.
+ * 
+ * @author scott.hasse@gmail.com
+ */
+public class DecryptingProcessor extends ChunkProcessor<EncryptedChunk, ByteBuffer> {
+
+	private KeyStore store;
+
+	public DecryptingProcessor(KeyStore store) {
+		this.store = store;
+	}
+
+	@Override
+	protected ByteBuffer process(EncryptedChunk chunk) throws Exception {
+		ByteBuffer data = chunk.getData();
+		int length = data.remaining();
+		KeyBuffer key = store.getKeyBufferForDecryption(chunk.getKeyName(), chunk.getOffset(), length);
+		try {
+			byte[] bytes = key.array();
+			ByteBuffer out = ByteBuffer.allocate(length);
+			for (int i = 0; i < length; i++) {
+				out.put((byte) (data.get() ^ bytes[i]));
+			}
+			out.flip();
+			return out;
+		} finally {
+			key.release();
+		}
+	}
+
+	@Override
+	protected void release() {
+	}
+}
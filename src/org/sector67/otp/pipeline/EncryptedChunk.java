@@ -0,0 +1,52 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.pipeline;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A chunk of cipher text from an EncryptingProcessor, tagged with the key name and the offset of
+ * the key bytes it was encrypted with.
+ * 
+ * @author scott.hasse@gmail.com
+ */
+public class EncryptedChunk {
+
+	private String keyName;
+	private int offset;
+	private ByteBuffer data;
+
+	public EncryptedChunk(String keyName, int offset, ByteBuffer data) {
+		this.keyName = keyName;
+		this.offset = offset;
+		this.data = data;
+	}
+
+	public String getKeyName() {
+		return keyName;
+	}
+
+	public int getOffset() {
+		return offset;
+	}
+
+	public ByteBuffer getData() {
+		return data;
+	}
+}
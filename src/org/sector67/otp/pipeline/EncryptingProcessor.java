@@ -0,0 +1,119 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.pipeline;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.sector67.otp.key.KeyException;
+import org.sector67.otp.key.KeyReservation;
+import org.sector67.otp.key.KeyStore;
+
+/**
+ * A pipeline stage that encrypts ByteBuffer chunks with one key, emitting EncryptedChunks tagged
+ * with the key name and offset.  Key bytes are reserved ahead in batches of the prefetch size, so
+ * the store is not consulted for every chunk, but no more than the window size of unused key
+ * bytes is ever held in memory, and key bytes are zeroed as soon as they have been used.
+ * 
+ * The processor must be the only user of its key while it runs, so that consecutive reservations
+ * are contiguous.  Key bytes prefetched but not used when the stream ends are discarded, they
+ * have already been consumed from the key.  A chunk larger than the window fails the stream.
+ * 
+ * @author scott.hasse@gmail.com
+ */
+public class EncryptingProcessor extends ChunkProcessor<ByteBuffer, EncryptedChunk> {
+
+	private KeyStore store;
+	private String keyName;
+	private int prefetch;
+	private int window;
+
+	// the prefetched key bytes, key[position, limit) are unused and start at key offset keyOffset
+	private byte[] key = new byte[0];
+	private int position = 0;
+	private int limit = 0;
+	private int keyOffset = 0;
+
+	public EncryptingProcessor(KeyStore store, String keyName, int prefetch, int window) {
+		if (prefetch <= 0 || window < prefetch) {
+			throw new IllegalArgumentException("The prefetch size must be positive and no larger than the window");
+		}
+		this.store = store;
+		this.keyName = keyName;
+		this.prefetch = prefetch;
+		this.window = window;
+	}
+
+	@Override
+	protected EncryptedChunk process(ByteBuffer chunk) throws KeyException {
+		int length = chunk.remaining();
+		if (length > window) {
+			throw new KeyException("The chunk length [" + length + "] is larger than the key window [" + window + "]");
+		}
+		if (limit - position < length) {
+			refill(length);
+		}
+		int offset = keyOffset;
+		ByteBuffer out = ByteBuffer.allocate(length);
+		for (int i = 0; i < length; i++) {
+			out.put((byte) (chunk.get() ^ key[position + i]));
+		}
+		out.flip();
+		Arrays.fill(key, position, position + length, (byte) 0);
+		position += length;
+		keyOffset += length;
+		return new EncryptedChunk(keyName, offset, out);
+	}
+
+	/*
+	 * Reserves more key bytes so that at least length are unused, keeping the total held within
+	 * the window
+	 */
+	private void refill(int length) throws KeyException {
+		int held = limit - position;
+		int reserve = Math.min(Math.max(prefetch, length - held), window - held);
+		KeyReservation reservation = store.reserve(keyName, reserve);
+		int offset = reservation.getOffset();
+		byte[] next;
+		try {
+			if (held > 0 && offset != keyOffset + held) {
+				throw new KeyException("The key [" + keyName + "] was used by something else while it was being streamed");
+			}
+			next = new byte[held + reserve];
+			System.arraycopy(key, position, next, 0, held);
+			System.arraycopy(reservation.getKeyBuffer().array(), 0, next, held, reserve);
+		} finally {
+			reservation.release();
+		}
+		Arrays.fill(key, (byte) 0);
+		if (held == 0) {
+			keyOffset = offset;
+		}
+		key = next;
+		position = 0;
+		limit = next.length;
+	}
+
+	@Override
+	protected void release() {
+		Arrays.fill(key, (byte) 0);
+		position = 0;
+		limit = 0;
+	}
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.pipeline;
+
+/**
+ * The reactive streams interfaces, with the same shape as java.util.concurrent.Flow, which this
+ * project cannot use while it targets Java 7.  On a newer runtime the processors here can be
+ * bridged to java.util.concurrent.Flow by adapters that simply forward each method.
+ * 
+ * @author scott.hasse@gmail.com
+ */
+public final class Flow {
+
+	private Flow() {
+	}
+
+	public static interface Publisher<T> {
+		public void subscribe(Subscriber<? super T> subscriber);
+	}
+
+	public static interface Subscriber<T> {
+		public void onSubscribe(Subscription subscription);
+
+		public void onNext(T item);
+
+		public void onError(Throwable throwable);
+
+		public void onComplete();
+	}
+
+	public static interface Subscription {
+		public void request(long n);
+
+		public void cancel();
+	}
+
+	public static interface Processor<T, R> extends Subscriber<T>, Publisher<R> {
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.sector67.otp.cipher.EncryptionResult;
+
+/**
+ * A client for OtpServer.  One client holds one connection, and may be shared between threads,
+ * which then take turns; use one client per thread for more concurrency.
+ * 
+ * @author scott.hasse@gmail.com
+ */
+public class OtpClient implements Closeable {
+
+	private Socket socket;
+	private DataInputStream in;
+	private DataOutputStream out;
+	private ReentrantLock lock = new ReentrantLock();
+
+	/*
+	 * Connects to a server on this machine
+	 */
+	public OtpClient(int port) throws ServerException {
+		try {
+			socket = new Socket(InetAddress.getLoopbackAddress(), port);
+			socket.setTcpNoDelay(true);
+			in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		} catch (IOException e) {
+			throw new ServerException(e);
+		}
+	}
+
+	/*
+	 * Encrypts with the next bytes of the named key, returning the offset they were taken from
+	 */
+	public EncryptionResult encrypt(String keyName, byte[] plaintext) throws ServerException {
+		lock.lock();
+		try {
+			out.writeByte(OtpProtocol.ENCRYPT);
+			out.writeUTF(keyName);
+			out.writeInt(plaintext.length);
+			out.write(plaintext);
+			out.flush();
+			readStatus();
+			int offset = in.readInt();
+			byte[] ciphertext = OtpProtocol.readBytes(in, in.readInt());
+			return new EncryptionResult(keyName, offset, ciphertext);
+		} catch (IOException e) {
+			throw new ServerException(e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public byte[] decrypt(String keyName, int offset, byte[] ciphertext) throws ServerException {
+		lock.lock();
+		try {
+			out.writeByte(OtpProtocol.DECRYPT);
+			out.writeUTF(keyName);
+			out.writeInt(offset);
+			out.writeInt(ciphertext.length);
+			out.write(ciphertext);
+			out.flush();
+			readStatus();
+			return OtpProtocol.readBytes(in, in.readInt());
+		} catch (IOException e) {
+			throw new ServerException(e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void erase(String keyName, int offset, int length) throws ServerException {
+		lock.lock();
+		try {
+			out.writeByte(OtpProtocol.ERASE);
+			out.writeUTF(keyName);
+			out.writeInt(offset);
+			out.writeInt(length);
+			out.flush();
+			readStatus();
+		} catch (IOException e) {
+			throw new ServerException(e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void readStatus() throws IOException, ServerException {
+		byte status = in.readByte();
+		if (status != OtpProtocol.OK) {
+			throw new ServerException(in.readUTF());
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		socket.close();
+	}
+}
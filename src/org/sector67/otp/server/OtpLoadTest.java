@@ -0,0 +1,106 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.server;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.sector67.otp.cipher.EncryptionResult;
+import org.sector67.otp.key.FileKeyStore;
+import org.sector67.otp.utils.RandomUtils;
+
+/**
+ * A load test for OtpServer that runs entirely on localhost.  It starts a server over a
+ * FileKeyStore in a temporary directory, has a number of clients encrypt messages concurrently,
+ * decrypts a sample of them to check the round trip, and prints the throughput and how well the
+ * reservations were batched.  The store is destroyed afterwards.
+ * 
+ * Usage: OtpLoadTest [clients] [messages per client] [message size]
+ * 
+ * @author scott.hasse@gmail.com
+ */
+public class OtpLoadTest {
+
+	private static final String KEY_NAME = "load-test";
+
+	public static void main(String[] args) throws Exception {
+		final int clients = (args.length > 0) ? Integer.parseInt(args[0]) : 32;
+		final int messages = (args.length > 1) ? Integer.parseInt(args[1]) : 1000;
+		final int size = (args.length > 2) ? Integer.parseInt(args[2]) : 128;
+
+		FileKeyStore store = new FileKeyStore(Files.createTempDirectory("otp-load-test").toString());
+		store.init();
+		store.setReplayDetection(false);
+		store.generateKey(KEY_NAME, clients * messages * size);
+		final OtpServer server = new OtpServer(store, 0);
+		server.start();
+		ExecutorService threads = Executors.newFixedThreadPool(clients);
+		try {
+			List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+			for (int c = 0; c < clients; c++) {
+				tasks.add(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						int failures = 0;
+						try (OtpClient client = new OtpClient(server.getPort())) {
+							byte[] plaintext = new byte[size];
+							for (int i = 0; i < messages; i++) {
+								RandomUtils.current().nextBytes(plaintext);
+								EncryptionResult result = client.encrypt(KEY_NAME, plaintext);
+								// check every hundredth message makes the round trip
+								if (i % 100 == 0) {
+									byte[] decrypted = client.decrypt(KEY_NAME, result.getOffset(), result.getCiphertext());
+									if (!Arrays.equals(plaintext, decrypted)) {
+										failures++;
+									}
+								}
+							}
+						}
+						return failures;
+					}
+				});
+			}
+			long start = System.nanoTime();
+			int failures = 0;
+			for (Future<Integer> future : threads.invokeAll(tasks)) {
+				failures += future.get();
+			}
+			long nanos = System.nanoTime() - start;
+			long total = (long) clients * messages;
+			ReservationBatcher batcher = server.getBatcher();
+			System.out.println("clients: " + clients + ", messages: " + total + ", size: " + size);
+			System.out.println("elapsed: " + (nanos / 1000000) + " ms, "
+					+ (long) (total * 1e9 / nanos) + " messages/s, "
+					+ (long) (total * size * 1e9 / nanos / 1024) + " KB/s");
+			System.out.println("offset commits: " + batcher.getBatchCount() + ", reservations per commit: "
+					+ String.format("%.1f", (double) batcher.getReservationCount() / Math.max(1, batcher.getBatchCount())));
+			System.out.println("round trip failures: " + failures);
+		} finally {
+			threads.shutdown();
+			server.stop();
+			store.destroy();
+		}
+	}
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.server;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+
+/**
+ * The wire protocol between OtpClient and OtpServer.  Every request starts with an operation
+ * byte, and every response with a status byte, followed by:
+ * 
+ * ENCRYPT  request: key name (modified UTF-8), int length, plain text
+ *          response: int offset, int length, cipher text
+ * DECRYPT  request: key name, int offset, int length, cipher text
+ *          response: int length, plain text
+ * ERASE    request: key name, int offset, int length
+ *          response: nothing
+ * 
+ * An ERROR status is followed by a message instead.  Integers are big-endian, as written by
+ * DataOutputStream.  A connection carries any number of requests, answered in order.
+ * 
+ * @author scott.hasse@gmail.com
+ */
+class OtpProtocol {
+
+	static final byte ENCRYPT = 1;
+	static final byte DECRYPT = 2;
+	static final byte ERASE = 3;
+
+	static final byte OK = 0;
+	static final byte ERROR = 1;
+
+	// the largest message either side will accept
+	static final int MAX_LENGTH = 16 * 1024 * 1024;
+
+	private OtpProtocol() {
+	}
+
+	/*
+	 * Reads a length prefixed byte array, refusing lengths outside the protocol limit
+	 */
+	static byte[] readBytes(DataInputStream in, int length) throws IOException {
+		if (length < 0 || length > MAX_LENGTH) {
+			throw new IOException("Invalid message length: " + length);
+		}
+		byte[] result = new byte[length];
+		in.readFully(result);
+		return result;
+	}
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.sector67.otp.cipher.CipherException;
+import org.sector67.otp.cipher.OneTimePadCipher;
+import org.sector67.otp.key.KeyBuffer;
+import org.sector67.otp.key.KeyException;
+import org.sector67.otp.key.KeyReservation;
+import org.sector67.otp.key.KeyStore;
+
+/**
+ * A local encryption daemon that owns a KeyStore, so that several processes can encrypt against
+ * one key directory without each embedding their own store.  It listens on the loopback
+ * interface only and speaks the OtpProtocol; clients use OtpClient.
+ * 
+ * Encryption requests from all connections go through a ReservationBatcher, so concurrent
+ * messages share offset commits.  There is no authentication: any local process that can reach
+ * the port can use the keys, so only run it where every local user is trusted.
+ * 
+ * @author scott.hasse@gmail.com
+ */
+public class OtpServer {
+
+	private KeyStore store;
+	private int port;
+	private OneTimePadCipher cipher;
+	private ReservationBatcher batcher;
+	private ServerSocket serverSocket;
+	private ExecutorService connections;
+	private Set<Socket> open = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+	private volatile boolean running = false;
+	private volatile ServerErrorListener errorListener = null;
+
+	/*
+	 * Creates a server for the store, port 0 picks a free port, see getPort()
+	 */
+	public OtpServer(KeyStore store, int port) {
+		this.store = store;
+		this.port = port;
+		this.cipher = new OneTimePadCipher(store);
+		this.batcher = new ReservationBatcher(store);
+	}
+
+	/*
+	 * Sets where errors on the accept and connection threads are reported.  Without a listener
+	 * they go to the thread's uncaught exception handler.
+	 */
+	public void setErrorListener(ServerErrorListener errorListener) {
+		this.errorListener = errorListener;
+	}
+
+	public ReservationBatcher getBatcher() {
+		return batcher;
+	}
+
+	/*
+	 * The port the server is listening on
+	 */
+	public int getPort() {
+		return (serverSocket == null) ? port : serverSocket.getLocalPort();
+	}
+
+	public void start() throws ServerException {
+		try {
+			serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		} catch (IOException e) {
+			throw new ServerException(e);
+		}
+		running = true;
+		batcher.start();
+		connections = Executors.newCachedThreadPool();
+		Thread acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				accept();
+			}
+		}, "otp-server-accept");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	/*
+	 * Stops accepting, closes every connection and stops the batcher.  The server is fully
+	 * stopped even if closing the listening socket fails, the failure is thrown afterwards.  It is
+	 * safe to call when start() failed or was never called.
+	 */
+	public void stop() throws ServerException {
+		running = false;
+		IOException closeFailure = null;
+		// start() may have failed or never been called, leaving these unset
+		if (serverSocket != null) {
+			try {
+				serverSocket.close();
+			} catch (IOException e) {
+				closeFailure = e;
+			}
+		}
+		for (Socket socket : open) {
+			closeQuietly(socket);
+		}
+		if (connections != null) {
+			connections.shutdown();
+			try {
+				connections.awaitTermination(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		batcher.stop();
+		if (closeFailure != null) {
+			throw new ServerException(closeFailure);
+		}
+	}
+
+	private void accept() {
+		while (running) {
+			try {
+				final Socket socket = serverSocket.accept();
+				socket.setTcpNoDelay(true);
+				open.add(socket);
+				connections.execute(new Runnable() {
+					@Override
+					public void run() {
+						serve(socket);
+					}
+				});
+			} catch (IOException e) {
+				if (running) {
+					reportError(e);
+				}
+			}
+		}
+	}
+
+	/*
+	 * Answers requests on one connection until the client hangs up
+	 */
+	private void serve(Socket socket) {
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			while (running) {
+				byte op;
+				try {
+					op = in.readByte();
+				} catch (EOFException e) {
+					return;
+				}
+				handle(op, in, out);
+				// only flush once the client has nothing more queued, so pipelined requests share writes
+				if (in.available() == 0) {
+					out.flush();
+				}
+			}
+		} catch (SocketException e) {
+			// closed by stop() or the client
+		} catch (IOException e) {
+			if (running) {
+				reportError(e);
+			}
+		} finally {
+			open.remove(socket);
+			closeQuietly(socket);
+		}
+	}
+
+	private void handle(byte op, DataInputStream in, DataOutputStream out) throws IOException {
+		try {
+			switch (op) {
+			case OtpProtocol.ENCRYPT: {
+				String keyName = in.readUTF();
+				byte[] plaintext = OtpProtocol.readBytes(in, in.readInt());
+				KeyReservation reservation = batcher.reserve(keyName, plaintext.length);
+				byte[] ciphertext;
+				try {
+					ciphertext = cipher.encrypt(plaintext, reservation.getKeyBuffer());
+				} finally {
+					reservation.release();
+					Arrays.fill(plaintext, (byte) 0);
+				}
+				out.writeByte(OtpProtocol.OK);
+				out.writeInt(reservation.getOffset());
+				out.writeInt(ciphertext.length);
+				out.write(ciphertext);
+				break;
+			}
+			case OtpProtocol.DECRYPT: {
+				String keyName = in.readUTF();
+				int offset = in.readInt();
+				byte[] ciphertext = OtpProtocol.readBytes(in, in.readInt());
+				KeyBuffer key = store.getKeyBufferForDecryption(keyName, offset, ciphertext.length);
+				byte[] plaintext;
+				try {
+					plaintext = cipher.decrypt(ciphertext, key);
+				} finally {
+					key.release();
+				}
+				out.writeByte(OtpProtocol.OK);
+				out.writeInt(plaintext.length);
+				out.write(plaintext);
+				Arrays.fill(plaintext, (byte) 0);
+				break;
+			}
+			case OtpProtocol.ERASE: {
+				String keyName = in.readUTF();
+				int offset = in.readInt();
+				int length = in.readInt();
+				store.eraseKeyBytes(keyName, offset, length);
+				out.writeByte(OtpProtocol.OK);
+				break;
+			}
+			default:
+				throw new IOException("Unknown operation: " + op);
+			}
+		} catch (KeyException | CipherException e) {
+			writeError(out, e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			writeError(out, "The server is shutting down");
+		}
+	}
+
+	private void writeError(DataOutputStream out, String message) throws IOException {
+		out.writeByte(OtpProtocol.ERROR);
+		out.writeUTF((message == null) ? "" : message);
+	}
+
+	private void reportError(Exception e) {
+		ServerException error = new ServerException(e);
+		ServerErrorListener listener = errorListener;
+		if (listener != null) {
+			listener.error(error);
+		} else {
+			Thread thread = Thread.currentThread();
+			thread.getUncaughtExceptionHandler().uncaughtException(thread, error);
+		}
+	}
+
+	private void closeQuietly(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// already closed
+		}
+	}
+}
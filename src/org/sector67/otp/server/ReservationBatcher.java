@@ -0,0 +1,288 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.server;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.sector67.otp.key.KeyBuffer;
+import org.sector67.otp.key.KeyBufferPool;
+import org.sector67.otp.key.KeyException;
+import org.sector67.otp.key.KeyReservation;
+import org.sector67.otp.key.KeyStore;
+
+/**
+ * Coalesces key reservations from many threads.  A single worker thread drains whatever requests
+ * have queued up, and for each key takes the bytes for all of them with one call to
+ * KeyStore.reserve, so a burst of messages costs one offset commit instead of one each.  The
+ * combined bytes are then split between the requests in queue order, and wiped.  Callers must
+ * release the reservations they are handed; a caller interrupted while waiting gives up its
+ * request, and a reservation made for it anyway is released by the batcher.
+ * 
+ * @author scott.hasse@gmail.com
+ */
+public class ReservationBatcher {
+
+	private KeyStore store;
+	private KeyBufferPool pool = KeyBufferPool.getDefault();
+	private int maxBatchSize = 256;
+	private LinkedBlockingQueue<Pending> queue = new LinkedBlockingQueue<Pending>();
+	private volatile boolean running = false;
+	private Thread worker;
+	private AtomicLong batches = new AtomicLong();
+	private AtomicLong reservations = new AtomicLong();
+
+	private static class Pending {
+		private String keyName;
+		private int length;
+		private CountDownLatch done = new CountDownLatch(1);
+		private KeyReservation result;
+		private KeyException failure;
+		private boolean abandoned = false;
+
+		Pending(String keyName, int length) {
+			this.keyName = keyName;
+			this.length = length;
+		}
+
+		boolean isDone() {
+			return done.getCount() == 0;
+		}
+
+		synchronized void complete(KeyReservation reservation) {
+			if (abandoned) {
+				// nobody is waiting for it any more, so wipe the bytes here
+				reservation.release();
+			} else {
+				result = reservation;
+			}
+			done.countDown();
+		}
+
+		synchronized void fail(KeyException e) {
+			failure = e;
+			done.countDown();
+		}
+
+		/*
+		 * Marks the request as no longer wanted, returning a result that already arrived so the
+		 * caller can release it
+		 */
+		synchronized KeyReservation abandon() {
+			abandoned = true;
+			KeyReservation late = result;
+			result = null;
+			return late;
+		}
+	}
+
+	public ReservationBatcher(KeyStore store) {
+		this.store = store;
+	}
+
+	/*
+	 * Sets the most requests committed together
+	 */
+	public void setMaxBatchSize(int maxBatchSize) {
+		if (maxBatchSize <= 0) {
+			throw new IllegalArgumentException("The batch size must be positive");
+		}
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	public void start() {
+		running = true;
+		worker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				work();
+			}
+		}, "otp-reservation-batcher");
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/*
+	 * Stops the worker, failing any requests still queued
+	 */
+	public void stop() {
+		running = false;
+		if (worker != null) {
+			worker.interrupt();
+			try {
+				worker.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		List<Pending> left = new ArrayList<Pending>();
+		queue.drainTo(left);
+		for (Pending p : left) {
+			p.fail(new KeyException("The reservation batcher has been stopped"));
+		}
+	}
+
+	/*
+	 * Reserves length bytes of the key, waiting for the batch it lands in to be committed
+	 */
+	public KeyReservation reserve(String keyName, int length) throws KeyException, InterruptedException {
+		if (length < 0) {
+			throw new KeyException("Cannot reserve a negative number of key bytes: " + length);
+		}
+		if (!running) {
+			throw new KeyException("The reservation batcher is not running");
+		}
+		Pending p = new Pending(keyName, length);
+		queue.put(p);
+		// stop() may have drained the queue between the check above and the put, in which case
+		// nothing would ever complete the request
+		if (!running && queue.remove(p)) {
+			throw new KeyException("The reservation batcher has been stopped");
+		}
+		try {
+			p.done.await();
+		} catch (InterruptedException e) {
+			// if the worker already took the request, its reservation must still be released
+			if (!queue.remove(p)) {
+				KeyReservation late = p.abandon();
+				if (late != null) {
+					late.release();
+				}
+			}
+			throw e;
+		}
+		if (p.failure != null) {
+			throw p.failure;
+		}
+		return p.result;
+	}
+
+	/*
+	 * The number of offset commits made so far
+	 */
+	public long getBatchCount() {
+		return batches.get();
+	}
+
+	/*
+	 * The number of reservations served so far
+	 */
+	public long getReservationCount() {
+		return reservations.get();
+	}
+
+	private void work() {
+		List<Pending> batch = new ArrayList<Pending>();
+		while (running) {
+			try {
+				Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+				queue.drainTo(batch, maxBatchSize - 1);
+				process(batch);
+			} catch (InterruptedException e) {
+				// stop() interrupts to end the loop
+			} catch (RuntimeException e) {
+				// requests already completed have spent their key bytes, only fail the rest
+				for (Pending p : batch) {
+					if (!p.isDone()) {
+						p.fail(new KeyException(e));
+					}
+				}
+			} finally {
+				batch.clear();
+			}
+		}
+	}
+
+	private void process(List<Pending> batch) {
+		Map<String, List<Pending>> byKey = new LinkedHashMap<String, List<Pending>>();
+		for (Pending p : batch) {
+			List<Pending> list = byKey.get(p.keyName);
+			if (list == null) {
+				list = new ArrayList<Pending>();
+				byKey.put(p.keyName, list);
+			}
+			list.add(p);
+		}
+		for (Map.Entry<String, List<Pending>> entry : byKey.entrySet()) {
+			commit(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/*
+	 * Reserves the bytes for every request on one key in a single call, falling back to one call
+	 * per request if the combined reservation fails, so only the requests that cannot be served
+	 * see an error
+	 */
+	private void commit(String keyName, List<Pending> requests) {
+		long total = 0;
+		List<Pending> valid = new ArrayList<Pending>(requests.size());
+		for (Pending p : requests) {
+			if (p.length < 0) {
+				p.fail(new KeyException("Cannot reserve a negative number of key bytes: " + p.length));
+				continue;
+			}
+			valid.add(p);
+			total += p.length;
+		}
+		if (valid.size() > 1 && total <= Integer.MAX_VALUE) {
+			try {
+				KeyReservation combined = store.reserve(keyName, (int) total);
+				try {
+					int offset = combined.getOffset();
+					byte[] bytes = combined.getKeyBuffer().array();
+					batches.incrementAndGet();
+					int position = 0;
+					for (Pending p : valid) {
+						KeyBuffer key = pool.lease(p.length);
+						System.arraycopy(bytes, position, key.array(), 0, p.length);
+						p.complete(new KeyReservation(keyName, offset + position, key));
+						position += p.length;
+					}
+				} finally {
+					// the split copies belong to the requests now, the combined bytes are wiped
+					combined.release();
+				}
+				reservations.addAndGet(valid.size());
+				return;
+			} catch (KeyException e) {
+				// fall through and serve the requests one at a time
+			}
+		}
+		for (Pending p : valid) {
+			try {
+				KeyReservation reservation = store.reserve(keyName, p.length);
+				batches.incrementAndGet();
+				reservations.incrementAndGet();
+				p.complete(reservation);
+			} catch (KeyException e) {
+				p.fail(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.server;
+
+/**
+ * Receives the errors an OtpServer hits on its own threads, accepting and serving connections,
+ * where there is no caller to throw them to.  Called from several threads at once.
+ * 
+ * @author scott.hasse@gmail.com
+ */
+public interface ServerErrorListener {
+	/**
+	 * Called when accepting or serving a connection fails while the server is running
+	 * @param e
+	 */
+	public void error(ServerException e);
+}
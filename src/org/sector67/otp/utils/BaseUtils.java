@@ -22,6 +22,9 @@ import org.apache.commons.codec.DecoderException;
 import org.apache.commons.codec.binary.Base32;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.codec.binary.Hex;
+import org.sector67.otp.encoding.EncodingException;
+import org.sector67.otp.encoding.SimpleBase32Encoder;
+import org.sector67.otp.encoding.SimpleBase64Encoder;
 
 /**
  * This class provides simple interfaces to work with binary data in various bases.
@@ -55,14 +58,17 @@ public class BaseUtils {
 	 * with line terminators, including the last chunk.
 	 */
 	public static String getChunkedBase64(byte[] data) {
-		String base64 = bytesToBase64(data);
-	    StringBuffer result = new StringBuffer();
-	    int length = base64.length();
-	    for (int i = 0; i < length; i += MAJOR_CHUNK_SIZE) {
-	        result.append(base64.substring(i, Math.min(length, i + MAJOR_CHUNK_SIZE)));
-	        result.append(MAJOR_CHUNK_SEPARATOR);
-	    }
-	    return result.toString();
+		SimpleBase64Encoder encoder = new SimpleBase64Encoder();
+		// 3 bytes per 4 characters
+		encoder.setMajorChunkSize(MAJOR_CHUNK_SIZE / 4 * 3);
+		encoder.setMinorChunkSize(MAJOR_CHUNK_SIZE / 4 * 3);
+		encoder.setMajorChunkSeparator(MAJOR_CHUNK_SEPARATOR);
+		try {
+			return encoder.encode(data);
+		} catch (EncodingException e) {
+			// chunked encoding of an in-memory array should not have this problem
+			throw new RuntimeException(e);
+		}
 	}
 	
 	public static String getFooter() {
@@ -91,14 +97,17 @@ public class BaseUtils {
 	 * with line terminators, including the last chunk.
 	 */
 	public static String getChunkedBase32(byte[] data) {
-		String base32 = bytesToBase32(data);
-	    StringBuffer result = new StringBuffer();
-	    int length = base32.length();
-	    for (int i = 0; i < length; i += MAJOR_CHUNK_SIZE) {
-	        result.append(base32.substring(i, Math.min(length, i + MAJOR_CHUNK_SIZE)));
-	        result.append(MAJOR_CHUNK_SEPARATOR);
-	    }
-	    return result.toString();
+		SimpleBase32Encoder encoder = new SimpleBase32Encoder();
+		// 5 bytes per 8 characters
+		encoder.setMajorChunkSize(MAJOR_CHUNK_SIZE / 8 * 5);
+		encoder.setMinorChunkSize(MAJOR_CHUNK_SIZE / 8 * 5);
+		encoder.setMajorChunkSeparator(MAJOR_CHUNK_SEPARATOR);
+		try {
+			return encoder.encode(data);
+		} catch (EncodingException e) {
+			// chunked encoding of an in-memory array should not have this problem
+			throw new RuntimeException(e);
+		}
 	}
 
 
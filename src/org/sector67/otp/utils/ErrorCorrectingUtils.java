@@ -79,4 +79,53 @@ public class ErrorCorrectingUtils {
 		return result;
 	}
 	*/
+
+	/*
+	 * Log and anti-log tables for GF(256) with the primitive polynomial 0x011D and a generator
+	 * base of 0, the same field as GenericGF.QR_CODE_FIELD_256.  The zxing field keeps its
+	 * arithmetic package private, so the tables are duplicated here for the cheap syndrome check
+	 * below and for ReedSolomonErasureDecoder.
+	 */
+	private static final int QR_CODE_PRIMITIVE = 0x011D;
+	static final int[] EXP = new int[512];
+	static final int[] LOG = new int[256];
+
+	static {
+		int x = 1;
+		for (int i = 0; i < 255; i++) {
+			EXP[i] = x;
+			LOG[x] = i;
+			x <<= 1;
+			if (x >= 256) {
+				x ^= QR_CODE_PRIMITIVE;
+			}
+		}
+		// doubled so that EXP[LOG[a] + LOG[b]] never needs a modulo
+		for (int i = 255; i < EXP.length; i++) {
+			EXP[i] = EXP[i - 255];
+		}
+	}
+
+	/*
+	 * Returns true if the Reed Solomon codeword stored in data[offset] to data[offset + length - 1]
+	 * has an all-zero syndrome, meaning it is a valid codeword and needs no correction.  The
+	 * codeword is expected in the layout produced by ReedSolomonEncoder over QR_CODE_FIELD_256,
+	 * data bytes first and ecBytes error correction bytes last.
+	 */
+	public static boolean hasZeroSyndrome(byte[] data, int offset, int length, int ecBytes) {
+		for (int i = 0; i < ecBytes; i++) {
+			// evaluate the received polynomial at alpha^i using Horner's rule
+			int s = 0;
+			for (int j = offset; j < offset + length; j++) {
+				if (s != 0) {
+					s = EXP[LOG[s] + i];
+				}
+				s ^= data[j] & 0xFF;
+			}
+			if (s != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
 }
@@ -27,10 +27,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
 import java.nio.file.CopyOption;
 import java.nio.file.Files;
-import java.security.SecureRandom;
-import java.util.Random;
 
 /**
  * A class to encapsulate static convenience methods for interfacing with
@@ -40,6 +39,8 @@ import java.util.Random;
  */
 public class FileUtils {
 
+	private static final long COPY_CHUNK_SIZE = 64L * 1024 * 1024;
+
 	public static void copyFile(String inputName, String outputName)
 			throws IOException {
 		File input = new File(inputName);
@@ -48,6 +49,32 @@ public class FileUtils {
 		Files.copy(input.toPath(), output.toPath(), new CopyOption[0]);
 	}
 
+	/*
+	 * Copies input, from position to the end, to a new output file.  The bytes are moved with
+	 * FileChannel.transferTo in large chunks, which lets the operating system copy them without
+	 * passing through the Java heap.  Returns the number of bytes copied.
+	 */
+	public static long copyFile(File input, File output, long position) throws IOException {
+		try (FileInputStream in = new FileInputStream(input);
+				FileOutputStream out = new FileOutputStream(output)) {
+			FileChannel source = in.getChannel();
+			FileChannel destination = out.getChannel();
+			long size = source.size();
+			long copied = 0;
+			while (position + copied < size) {
+				long count = Math.min(COPY_CHUNK_SIZE, size - position - copied);
+				// transferTo may move fewer bytes than asked for, but none means the file shrank
+				long moved = source.transferTo(position + copied, count, destination);
+				if (moved <= 0) {
+					throw new IOException("Copying [" + input + "] stopped at byte " + (position + copied)
+							+ " of " + size + ", the file may have been truncated");
+				}
+				copied += moved;
+			}
+			return copied;
+		}
+	}
+
 	public static void deleteFile(String filename) {
 		File f = new File(filename);
 		f.delete();
@@ -106,9 +133,8 @@ public class FileUtils {
 			int size) throws IOException {
 		RandomAccessFile file = new RandomAccessFile(filePath, "rw");
 		file.seek(position);
-		Random r = new SecureRandom();
 		byte[] bytes = new byte[size];
-		r.nextBytes(bytes);
+		RandomUtils.current().nextBytes(bytes);
 		file.write(bytes);
 		file.close();
 	}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.utils;
+
+import java.security.SecureRandom;
+
+/**
+ * Hands out a SecureRandom per thread.  A shared SecureRandom serializes every caller on its
+ * internal lock, which becomes the bottleneck when many threads generate or erase keys at once.
+ * 
+ * @author scott.hasse@gmail.com
+ */
+public class RandomUtils {
+
+	private static final ThreadLocal<SecureRandom> RANDOM = new ThreadLocal<SecureRandom>() {
+		@Override
+		protected SecureRandom initialValue() {
+			return new SecureRandom();
+		}
+	};
+
+	private RandomUtils() {
+	}
+
+	/*
+	 * Returns the calling thread's SecureRandom, which must not be handed to other threads
+	 */
+	public static SecureRandom current() {
+		return RANDOM.get();
+	}
+}
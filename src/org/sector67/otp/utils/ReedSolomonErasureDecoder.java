@@ -0,0 +1,230 @@
+/*
+ * Copyright 2014 individual contributors as indicated by the @author 
+ * tags
+ * 
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this software.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package org.sector67.otp.utils;
+
+import com.google.zxing.common.reedsolomon.ReedSolomonException;
+
+/**
+ * A Reed Solomon errors-and-erasures decoder over the same field and codeword layout as the zxing
+ * ReedSolomonDecoder with GenericGF.QR_CODE_FIELD_256.  The zxing decoder only handles errors at
+ * unknown positions, each of which costs two error correction bytes.  When the position of a bad
+ * byte is already known (an erasure) it only costs one, so with twoS error correction bytes this
+ * decoder corrects any combination of e errors and f erasures where 2e + f <= twoS.
+ * 
+ * Uses Berlekamp-Massey initialised with the erasure locator, a Chien search for the error
+ * locations and Forney's formula for the magnitudes.  Polynomials are held lowest degree first.
+ * Instances hold no state and may be shared between threads.
+ * 
+ * @author scott.hasse@gmail.com
+ */
+public class ReedSolomonErasureDecoder {
+
+	/*
+	 * Corrects the received codeword in place.  The erasures are indexes into received of bytes
+	 * known to be bad, their current values are ignored.  Returns the number of bytes changed.
+	 */
+	public int decode(int[] received, int twoS, int[] erasures) throws ReedSolomonException {
+		int n = received.length;
+		int erasureCount = (erasures == null) ? 0 : erasures.length;
+		if (erasureCount > twoS) {
+			throw new ReedSolomonException("Too many erasures to correct");
+		}
+		int[] syndromes = new int[twoS];
+		boolean noError = true;
+		for (int i = 0; i < twoS; i++) {
+			syndromes[i] = evaluateCodeword(received, exp(i));
+			if (syndromes[i] != 0) {
+				noError = false;
+			}
+		}
+		if (noError) {
+			return 0;
+		}
+
+		// erasure locator, the product of (1 - X x) for each erased position X
+		int[] locator = new int[] { 1 };
+		for (int k = 0; k < erasureCount; k++) {
+			int index = erasures[k];
+			if (index < 0 || index >= n) {
+				throw new IllegalArgumentException("Erasure position out of range: " + index);
+			}
+			locator = multiply(locator, new int[] { 1, exp(n - 1 - index) });
+		}
+
+		// Berlekamp-Massey, starting after the erasures already accounted for
+		int[] previous = locator.clone();
+		int length = erasureCount;
+		for (int r = erasureCount; r < twoS; r++) {
+			int delta = 0;
+			for (int j = 0; j < locator.length && j <= r; j++) {
+				delta ^= multiply(locator[j], syndromes[r - j]);
+			}
+			previous = shift(previous);
+			if (delta != 0) {
+				int[] next = add(locator, scale(previous, delta));
+				if (2 * length <= r + erasureCount) {
+					previous = scale(locator, inverse(delta));
+					length = r + 1 + erasureCount - length;
+				}
+				locator = next;
+			}
+		}
+		locator = trim(locator);
+		int degree = locator.length - 1;
+		if (degree == 0 || 2 * (degree - erasureCount) + erasureCount > twoS) {
+			throw new ReedSolomonException("Too many errors to correct");
+		}
+
+		// Chien search, position p in the array has power n - 1 - p
+		int[] positions = new int[degree];
+		int found = 0;
+		for (int p = 0; p < n; p++) {
+			int power = n - 1 - p;
+			if (evaluate(locator, exp((255 - power) % 255)) == 0) {
+				if (found == degree) {
+					found++;
+					break;
+				}
+				positions[found++] = p;
+			}
+		}
+		if (found != degree) {
+			throw new ReedSolomonException("Error locator degree does not match number of roots");
+		}
+
+		// Forney, with a first consecutive root of 0 the magnitude is X * omega(1/X) / locator'(1/X)
+		int[] omega = multiply(syndromes, locator);
+		if (omega.length > twoS) {
+			int[] truncated = new int[twoS];
+			System.arraycopy(omega, 0, truncated, 0, twoS);
+			omega = truncated;
+		}
+		int[] derivative = new int[Math.max(1, degree)];
+		for (int i = 1; i <= degree; i += 2) {
+			derivative[i - 1] = locator[i];
+		}
+		for (int k = 0; k < degree; k++) {
+			int power = n - 1 - positions[k];
+			int x = exp(power);
+			int xInverse = exp((255 - power) % 255);
+			int denominator = evaluate(derivative, xInverse);
+			if (denominator == 0) {
+				throw new ReedSolomonException("Error magnitude could not be calculated");
+			}
+			int magnitude = multiply(x, multiply(evaluate(omega, xInverse), inverse(denominator)));
+			received[positions[k]] ^= magnitude;
+		}
+
+		// a miscorrection leaves a non-zero syndrome behind
+		for (int i = 0; i < twoS; i++) {
+			if (evaluateCodeword(received, exp(i)) != 0) {
+				throw new ReedSolomonException("Could not correct the codeword");
+			}
+		}
+		return degree;
+	}
+
+	private static int exp(int power) {
+		return ErrorCorrectingUtils.EXP[power];
+	}
+
+	private static int multiply(int a, int b) {
+		if (a == 0 || b == 0) {
+			return 0;
+		}
+		return ErrorCorrectingUtils.EXP[ErrorCorrectingUtils.LOG[a] + ErrorCorrectingUtils.LOG[b]];
+	}
+
+	private static int inverse(int a) {
+		return ErrorCorrectingUtils.EXP[255 - ErrorCorrectingUtils.LOG[a]];
+	}
+
+	/*
+	 * Evaluates a codeword, highest degree coefficient first, at x
+	 */
+	private static int evaluateCodeword(int[] codeword, int x) {
+		int result = 0;
+		for (int i = 0; i < codeword.length; i++) {
+			result = multiply(result, x) ^ codeword[i];
+		}
+		return result;
+	}
+
+	/*
+	 * Evaluates a polynomial, lowest degree coefficient first, at x
+	 */
+	private static int evaluate(int[] poly, int x) {
+		int result = 0;
+		for (int i = poly.length - 1; i >= 0; i--) {
+			result = multiply(result, x) ^ poly[i];
+		}
+		return result;
+	}
+
+	private static int[] multiply(int[] a, int[] b) {
+		int[] result = new int[a.length + b.length - 1];
+		for (int i = 0; i < a.length; i++) {
+			for (int j = 0; j < b.length; j++) {
+				result[i + j] ^= multiply(a[i], b[j]);
+			}
+		}
+		return result;
+	}
+
+	private static int[] add(int[] a, int[] b) {
+		int[] result = new int[Math.max(a.length, b.length)];
+		for (int i = 0; i < a.length; i++) {
+			result[i] = a[i];
+		}
+		for (int i = 0; i < b.length; i++) {
+			result[i] ^= b[i];
+		}
+		return result;
+	}
+
+	private static int[] scale(int[] poly, int factor) {
+		int[] result = new int[poly.length];
+		for (int i = 0; i < poly.length; i++) {
+			result[i] = multiply(poly[i], factor);
+		}
+		return result;
+	}
+
+	/*
+	 * Multiplies by x
+	 */
+	private static int[] shift(int[] poly) {
+		int[] result = new int[poly.length + 1];
+		System.arraycopy(poly, 0, result, 1, poly.length);
+		return result;
+	}
+
+	private static int[] trim(int[] poly) {
+		int length = poly.length;
+		while (length > 1 && poly[length - 1] == 0) {
+			length--;
+		}
+		if (length == poly.length) {
+			return poly;
+		}
+		int[] result = new int[length];
+		System.arraycopy(poly, 0, result, 0, length);
+		return result;
+	}
+}